@@ -0,0 +1,282 @@
+package com.dev2next.cognitiveload;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.LongSupplier;
+import java.util.function.ToLongFunction;
+import java.util.logging.Logger;
+
+/**
+ * Continuous, event-driven version of
+ * {@link BetterControlStructures#findApprovedUsdTransfers(List)}.
+ *
+ * <p>
+ * Instead of rescanning every account, the detector is fed
+ * {@link #onTransaction transaction} and {@link #onApproval approval} events
+ * and reports a match as soon as a manager approval dated after its
+ * transaction is known for a positive USD transfer of an active account. Only
+ * qualifying transactions are kept open, each with just its account id and
+ * date.
+ * </p>
+ *
+ * <p>
+ * Approvals may arrive before their transaction; they are held as pending and
+ * matched once the transaction shows up. Open transactions and pending
+ * approvals are evicted, oldest first, once they have been held longer than
+ * the retention period or when more than the configured maximum are held, so
+ * memory stays bounded when approvals never come. Eviction runs on every
+ * event; {@link #evictExpired()} can also be called from a timer.
+ * </p>
+ *
+ * <p>
+ * The ids of transactions seen but not qualifying are remembered under the
+ * same limits, so their approvals are dropped instead of waiting as pending
+ * and crowding out genuine early approvals. Each open transaction reports an
+ * approval, identified by manager and date, once, so replayed events do not
+ * repeat matches while the transaction is held.
+ * </p>
+ *
+ * <p>
+ * All methods are synchronized; the sink is called while the lock is held.
+ * </p>
+ */
+final class ApprovalDetector {
+
+    private static final Logger LOGGER = Logger.getLogger(ApprovalDetector.class.getName());
+
+    private static final class OpenTransaction {
+
+        final String accountId;
+        final Date date;
+        final long arrivedMillis;
+        final List<Approval> matched = new ArrayList<>(2);
+
+        OpenTransaction(String accountId, Date date, long arrivedMillis) {
+            this.accountId = accountId;
+            this.date = date;
+            this.arrivedMillis = arrivedMillis;
+        }
+
+        /**
+         * Records a matching approval, unless one by the same manager with
+         * the same date was already recorded, which makes it a replay.
+         */
+        boolean firstMatch(Approval approval) {
+            for (Approval seen : matched) {
+                if (Objects.equals(seen.getManagerId(), approval.getManagerId())
+                        && seen.getDate().equals(approval.getDate())) {
+                    return false;
+                }
+            }
+            return matched.add(approval);
+        }
+    }
+
+    private static final class PendingApprovals {
+
+        final List<Approval> approvals = new ArrayList<>(2);
+        final long arrivedMillis;
+
+        PendingApprovals(long arrivedMillis) {
+            this.arrivedMillis = arrivedMillis;
+        }
+    }
+
+    private final ResultSink sink;
+    private final int maxOpen;
+    private final long retentionMillis;
+    private final LongSupplier clock;
+
+    // Insertion-ordered, so the eldest entry is always the next to expire.
+    private final LinkedHashMap<String, OpenTransaction> open = new LinkedHashMap<>();
+    private final LinkedHashMap<String, PendingApprovals> pending = new LinkedHashMap<>();
+    private final LinkedHashMap<String, Long> rejected = new LinkedHashMap<>();
+    private long evicted;
+
+    /**
+     * @param maxOpen maximum number of open transactions, and separately of
+     * transactions with pending approvals, kept at once
+     * @param retentionMillis how long a transaction stays open waiting for
+     * approvals, and how long early approvals wait for their transaction
+     */
+    ApprovalDetector(ResultSink sink, int maxOpen, long retentionMillis) {
+        this(sink, maxOpen, retentionMillis, System::currentTimeMillis);
+    }
+
+    ApprovalDetector(ResultSink sink, int maxOpen, long retentionMillis, LongSupplier clock) {
+        if (maxOpen < 1) {
+            throw new IllegalArgumentException("maxOpen must be positive: " + maxOpen);
+        }
+        if (retentionMillis < 1) {
+            throw new IllegalArgumentException("retentionMillis must be positive: " + retentionMillis);
+        }
+        this.sink = sink;
+        this.maxOpen = maxOpen;
+        this.retentionMillis = retentionMillis;
+        this.clock = clock;
+    }
+
+    /**
+     * Feeds every transaction of an account, with the approvals it already
+     * carries. Useful to prime the detector from a batch.
+     */
+    synchronized void onAccount(Account account) {
+        if (account == null) {
+            return;
+        }
+        for (Transaction txn : account.getTransactions()) {
+            onTransaction(account.getId(), account.isActive(), txn);
+        }
+    }
+
+    /**
+     * A transaction was booked. Approvals already attached to it, and any
+     * pending approvals received earlier under its id, are checked right
+     * away. Transactions that cannot qualify are not kept.
+     */
+    synchronized void onTransaction(String accountId, boolean accountActive, Transaction txn) {
+        long now = clock.getAsLong();
+        evictExpired(now);
+        if (txn == null) {
+            return;
+        }
+        PendingApprovals early = pending.remove(txn.getId());
+        if (!accountActive || !BetterControlStructures.isValidTransaction(txn)
+                || !BetterControlStructures.isUsdTransfer(txn)) {
+            if (!open.containsKey(txn.getId()) && rejected.put(txn.getId(), now) == null) {
+                trim(rejected);
+            }
+            return;
+        }
+        rejected.remove(txn.getId());
+        // A replayed transaction keeps its state, and with it the approvals
+        // already reported.
+        OpenTransaction state = open.get(txn.getId());
+        boolean isNew = state == null;
+        if (isNew) {
+            state = new OpenTransaction(accountId, txn.getDate(), now);
+        }
+        for (Approval approval : txn.getApprovals()) {
+            check(txn.getId(), state, approval);
+        }
+        if (early != null) {
+            for (Approval approval : early.approvals) {
+                check(txn.getId(), state, approval);
+            }
+        }
+        if (isNew) {
+            open.put(txn.getId(), state);
+            evicted += trim(open);
+        }
+    }
+
+    /**
+     * A manager approved or rejected transaction {@code transactionId}.
+     */
+    synchronized void onApproval(String transactionId, Approval approval) {
+        long now = clock.getAsLong();
+        evictExpired(now);
+        if (approval == null) {
+            return;
+        }
+        OpenTransaction state = open.get(transactionId);
+        if (state != null) {
+            check(transactionId, state, approval);
+            return;
+        }
+        if (rejected.containsKey(transactionId)) {
+            return;
+        }
+        pending.computeIfAbsent(transactionId, id -> new PendingApprovals(now)).approvals.add(approval);
+        evicted += trim(pending);
+    }
+
+    /**
+     * Drops open transactions and pending approvals older than the retention
+     * period.
+     */
+    synchronized void evictExpired() {
+        evictExpired(clock.getAsLong());
+    }
+
+    synchronized int openTransactions() {
+        return open.size();
+    }
+
+    synchronized int pendingTransactions() {
+        return pending.size();
+    }
+
+    /**
+     * Number of open transactions and pending approval sets dropped so far.
+     */
+    synchronized long evicted() {
+        return evicted;
+    }
+
+    private void check(String transactionId, OpenTransaction state, Approval approval) {
+        if (approval != null && approval.isManagerApproved() && approval.getDate().after(state.date)
+                && state.firstMatch(approval)) {
+            sink.write(state.accountId, transactionId, approval.getManagerId());
+        }
+    }
+
+    private void evictExpired(long now) {
+        long cutoff = now - retentionMillis;
+        evicted += evictBefore(open, cutoff, e -> e.arrivedMillis);
+        evicted += evictBefore(pending, cutoff, e -> e.arrivedMillis);
+        evictBefore(rejected, cutoff, Long::longValue);
+    }
+
+    private static <V> int evictBefore(LinkedHashMap<String, V> map, long cutoff,
+            ToLongFunction<V> arrived) {
+        int count = 0;
+        Iterator<V> it = map.values().iterator();
+        while (it.hasNext() && arrived.applyAsLong(it.next()) < cutoff) {
+            it.remove();
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * @return the number of eldest entries dropped to get back to
+     * {@code maxOpen}
+     */
+    private <V> int trim(LinkedHashMap<String, V> map) {
+        int count = 0;
+        Iterator<Map.Entry<String, V>> it = map.entrySet().iterator();
+        while (map.size() > maxOpen) {
+            it.next();
+            it.remove();
+            count++;
+        }
+        return count;
+    }
+
+    public static void main(String[] args) {
+        ApprovalDetector detector = new ApprovalDetector(
+                ResultSinks.logging(LOGGER), 10_000, 24 * 60 * 60 * 1000L);
+        long now = System.currentTimeMillis();
+
+        // The transaction arrives first, approvals trickle in later.
+        detector.onTransaction("A001", true, new Transaction("T100", 500.0, "USD", TransactionType.TRANSFER,
+                new Date(now), Collections.emptyList()));
+        detector.onApproval("T100", new Approval("MGR2", false, new Date(now + 5_000)));
+        detector.onApproval("T100", new Approval("MGR1", true, new Date(now + 10_000)));
+
+        // An approval that overtook its transaction is held until it arrives.
+        detector.onApproval("T200", new Approval("MGR3", true, new Date(now + 20_000)));
+        detector.onTransaction("A002", true, new Transaction("T200", 1000.0, "USD", TransactionType.TRANSFER,
+                new Date(now), Collections.emptyList()));
+
+        LOGGER.log(java.util.logging.Level.INFO, "{0} open, {1} pending",
+                new Object[]{detector.openTransactions(), detector.pendingTransactions()});
+    }
+}
@@ -0,0 +1,56 @@
+package com.dev2next.cognitiveload;
+
+import java.util.Objects;
+
+/**
+ * One match of the approved-USD-transfer report: a manager approval, dated
+ * after its transaction, on a USD transfer of an active account.
+ */
+final class ApprovedTransfer {
+
+    private final String accountId;
+    private final String transactionId;
+    private final String managerId;
+
+    ApprovedTransfer(String accountId, String transactionId, String managerId) {
+        this.accountId = accountId;
+        this.transactionId = transactionId;
+        this.managerId = managerId;
+    }
+
+    String getAccountId() {
+        return accountId;
+    }
+
+    String getTransactionId() {
+        return transactionId;
+    }
+
+    String getManagerId() {
+        return managerId;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) {
+            return true;
+        }
+        if (!(other instanceof ApprovedTransfer)) {
+            return false;
+        }
+        ApprovedTransfer that = (ApprovedTransfer) other;
+        return Objects.equals(accountId, that.accountId)
+                && Objects.equals(transactionId, that.transactionId)
+                && Objects.equals(managerId, that.managerId);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(accountId, transactionId, managerId);
+    }
+
+    @Override
+    public String toString() {
+        return "Account: " + accountId + ", Transaction: " + transactionId + ", Approved by: " + managerId;
+    }
+}
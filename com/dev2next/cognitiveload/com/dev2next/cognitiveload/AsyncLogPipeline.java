@@ -0,0 +1,256 @@
+package com.dev2next.cognitiveload;
+
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Moves log formatting and writing off the caller's thread.
+ *
+ * <p>
+ * Callers {@link #publish(String, Object...) publish} a {@link MessageFormat}
+ * pattern and its arguments into a bounded ring buffer; nothing is formatted
+ * yet. A single background consumer drains the buffer in batches, formats each
+ * message and hands the batch to a {@link Sink}. What happens when the buffer
+ * is full is chosen with an {@link OverflowPolicy}.
+ * </p>
+ *
+ * <p>
+ * Publishing and flushing share a lock that {@link #close()} takes
+ * exclusively, so nothing can be queued behind the end-of-stream marker: every
+ * message accepted before {@code close()} is written, and later calls fail.
+ * </p>
+ */
+class AsyncLogPipeline implements AutoCloseable {
+
+    private static final Logger LOGGER = Logger.getLogger(AsyncLogPipeline.class.getName());
+
+    /**
+     * What {@link #publish(String, Object...)} does when the buffer is full.
+     */
+    enum OverflowPolicy {
+        /**
+         * Wait for space. Nothing is lost, but callers slow down to the speed
+         * of the sink.
+         */
+        BLOCK,
+        /**
+         * Discard the message. Callers never wait.
+         */
+        DROP,
+        /**
+         * Keep one in every {@code sampleRate} overflowing messages, waiting
+         * for space for those, and discard the rest.
+         */
+        SAMPLE
+    }
+
+    /**
+     * Receives formatted messages, one batch at a time, on the consumer
+     * thread.
+     */
+    interface Sink {
+
+        void write(List<String> batch) throws Exception;
+    }
+
+    private static final class Event {
+
+        final String pattern;
+        final Object[] args;
+        final CountDownLatch flushed;
+
+        Event(String pattern, Object[] args, CountDownLatch flushed) {
+            this.pattern = pattern;
+            this.args = args;
+            this.flushed = flushed;
+        }
+    }
+
+    private static final Event POISON = new Event(null, null, null);
+
+    private final BlockingQueue<Event> buffer;
+    private final int batchSize;
+    private final OverflowPolicy policy;
+    private final int sampleRate;
+    private final Sink sink;
+    private final Thread consumer;
+    private final AtomicLong overflowed = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final ReadWriteLock closeLock = new ReentrantReadWriteLock();
+    private volatile boolean closed;
+
+    AsyncLogPipeline(int capacity, int batchSize, OverflowPolicy policy, int sampleRate, Sink sink) {
+        if (batchSize < 1 || sampleRate < 1) {
+            throw new IllegalArgumentException("Batch size and sample rate must be positive");
+        }
+        this.buffer = new ArrayBlockingQueue<>(capacity);
+        this.batchSize = batchSize;
+        this.policy = policy;
+        this.sampleRate = sampleRate;
+        this.sink = sink;
+        this.consumer = new Thread(this::consume, "async-log-pipeline");
+        this.consumer.setDaemon(true);
+        this.consumer.start();
+    }
+
+    /**
+     * Queues a message for formatting with {@link MessageFormat}. The
+     * arguments are captured as-is, so they should be immutable.
+     *
+     * @return {@code false} if the message was dropped
+     */
+    boolean publish(String pattern, Object... args) {
+        closeLock.readLock().lock();
+        try {
+            checkOpen();
+            Event event = new Event(pattern, args, null);
+            if (buffer.offer(event)) {
+                return true;
+            }
+            boolean keep = policy == OverflowPolicy.BLOCK
+                    || (policy == OverflowPolicy.SAMPLE && overflowed.getAndIncrement() % sampleRate == 0);
+            if (!keep) {
+                dropped.incrementAndGet();
+                return false;
+            }
+            try {
+                buffer.put(event);
+                return true;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                dropped.incrementAndGet();
+                return false;
+            }
+        } finally {
+            closeLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Waits until every message published before this call has been written
+     * to the sink.
+     *
+     * @throws IllegalStateException if the pipeline is closed, or its
+     * consumer stopped before reaching this flush
+     */
+    void flush() throws InterruptedException {
+        CountDownLatch flushed = new CountDownLatch(1);
+        closeLock.readLock().lock();
+        try {
+            checkOpen();
+            buffer.put(new Event(null, null, flushed));
+        } finally {
+            closeLock.readLock().unlock();
+        }
+        while (!flushed.await(100, TimeUnit.MILLISECONDS)) {
+            if (!consumer.isAlive()) {
+                throw new IllegalStateException("Log consumer has stopped");
+            }
+        }
+    }
+
+    /**
+     * Number of messages discarded because the buffer was full.
+     */
+    long dropped() {
+        return dropped.get();
+    }
+
+    /**
+     * Writes everything still buffered, then stops the consumer. If the
+     * calling thread is interrupted, it still waits for the consumer and
+     * restores the interrupt status afterwards.
+     */
+    @Override
+    public void close() {
+        boolean interrupted = false;
+        closeLock.writeLock().lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            while (consumer.isAlive()) {
+                try {
+                    if (buffer.offer(POISON, 100, TimeUnit.MILLISECONDS)) {
+                        break;
+                    }
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        } finally {
+            closeLock.writeLock().unlock();
+        }
+        while (consumer.isAlive()) {
+            try {
+                consumer.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    boolean isClosed() {
+        return closed;
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("Pipeline is closed");
+        }
+    }
+
+    private void consume() {
+        List<Event> events = new ArrayList<>(batchSize);
+        List<String> batch = new ArrayList<>(batchSize);
+        List<CountDownLatch> flushes = new ArrayList<>();
+        boolean running = true;
+        while (running) {
+            try {
+                events.add(buffer.take());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            buffer.drainTo(events, batchSize - 1);
+            for (Event event : events) {
+                if (event == POISON) {
+                    running = false;
+                } else if (event.flushed != null) {
+                    flushes.add(event.flushed);
+                } else {
+                    try {
+                        batch.add(MessageFormat.format(event.pattern, event.args));
+                    } catch (IllegalArgumentException e) {
+                        LOGGER.log(Level.SEVERE, "Failed to format log message '" + event.pattern + "'", e);
+                    }
+                }
+            }
+            if (!batch.isEmpty()) {
+                try {
+                    sink.write(batch);
+                } catch (Exception e) {
+                    LOGGER.log(Level.SEVERE, "Failed to write log batch of " + batch.size() + " messages", e);
+                }
+            }
+            flushes.forEach(CountDownLatch::countDown);
+            events.clear();
+            batch.clear();
+            flushes.clear();
+        }
+    }
+}
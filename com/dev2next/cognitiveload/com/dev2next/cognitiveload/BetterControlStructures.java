@@ -1,9 +1,12 @@
 package com.dev2next.cognitiveload;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 import java.util.logging.Logger;
 
 public class BetterControlStructures {
@@ -17,24 +20,98 @@ public class BetterControlStructures {
      * @param accounts
      */
     void processAndLogApprovedUsdTransfers(List<Account> accounts) {
+        processApprovedUsdTransfers(accounts, ResultSinks.logging(LOGGER));
+    }
+
+    /**
+     * Parallel variant of {@link #processAndLogApprovedUsdTransfers(List)}.
+     * Accounts are scanned on {@code pool}; the matches are still logged in
+     * account order, on the calling thread.
+     */
+    void processAndLogApprovedUsdTransfers(List<Account> accounts, ForkJoinPool pool) {
+        ResultSink sink = ResultSinks.logging(LOGGER);
+        findApprovedUsdTransfers(accounts, pool).forEach(sink::write);
+    }
+
+    /**
+     * Writes the approved USD transfers of {@code accounts} to {@code sink} as
+     * they are found, in account, transaction and approval order, without
+     * collecting them first. The sink is neither flushed nor closed.
+     */
+    void processApprovedUsdTransfers(List<Account> accounts, ResultSink sink) {
         if (accounts == null) {
             return;
         }
         for (Account account : accounts) {
-            processAccount(account);
+            processAccount(account, sink);
+        }
+    }
+
+    /**
+     * Returns the approved USD transfers of {@code accounts}, in account,
+     * transaction and approval order.
+     */
+    List<ApprovedTransfer> findApprovedUsdTransfers(List<Account> accounts) {
+        List<ApprovedTransfer> matches = new ArrayList<>();
+        processApprovedUsdTransfers(accounts,
+                (accountId, transactionId, managerId) -> matches.add(
+                        new ApprovedTransfer(accountId, transactionId, managerId)));
+        return matches;
+    }
+
+    /**
+     * Same as {@link #findApprovedUsdTransfers(List)}, but splits the accounts
+     * into ranges that are scanned in parallel on {@code pool}. Accounts are
+     * independent, so no coordination is needed beyond concatenating the
+     * per-range results in order, which keeps the output identical to the
+     * sequential scan.
+     */
+    List<ApprovedTransfer> findApprovedUsdTransfers(List<Account> accounts, ForkJoinPool pool) {
+        if (accounts == null) {
+            return new ArrayList<>();
+        }
+        return pool.invoke(new ScanTask(accounts, 0, accounts.size()));
+    }
+
+    private final class ScanTask extends RecursiveTask<List<ApprovedTransfer>> {
+
+        private static final long serialVersionUID = 1L;
+        private static final int ACCOUNTS_PER_TASK = 1024;
+
+        private final List<Account> accounts;
+        private final int from;
+        private final int to;
+
+        ScanTask(List<Account> accounts, int from, int to) {
+            this.accounts = accounts;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected List<ApprovedTransfer> compute() {
+            if (to - from <= ACCOUNTS_PER_TASK) {
+                return findApprovedUsdTransfers(accounts.subList(from, to));
+            }
+            int middle = (from + to) >>> 1;
+            ScanTask right = new ScanTask(accounts, middle, to);
+            right.fork();
+            List<ApprovedTransfer> matches = new ScanTask(accounts, from, middle).compute();
+            matches.addAll(right.join());
+            return matches;
         }
     }
 
-    private void processAccount(Account account) {
+    private void processAccount(Account account, ResultSink sink) {
         if (!isValidAccount(account)) {
             return;
         }
         for (Transaction txn : account.getTransactions()) {
-            processTransaction(account, txn);
+            processTransaction(account, txn, sink);
         }
     }
 
-    private void processTransaction(Account account, Transaction txn) {
+    private void processTransaction(Account account, Transaction txn, ResultSink sink) {
         if (!isValidTransaction(txn)) {
             return;
         }
@@ -42,39 +119,33 @@ public class BetterControlStructures {
             return;
         }
         for (Approval approval : txn.getApprovals()) {
-            processApproval(account, txn, approval);
+            processApproval(account, txn, approval, sink);
         }
     }
 
-    private void processApproval(Account account, Transaction txn, Approval approval) {
+    private void processApproval(Account account, Transaction txn, Approval approval, ResultSink sink) {
         if (!isValidApproval(approval, txn)) {
             return;
         }
-        logApproval(account, txn, approval);
+        sink.write(account.getId(), txn.getId(), approval.getManagerId());
     }
 
     private boolean isValidAccount(Account account) {
         return account != null && account.isActive();
     }
 
-    private boolean isValidTransaction(Transaction txn) {
+    static boolean isValidTransaction(Transaction txn) {
         return txn != null && txn.getAmount() > 0;
     }
 
-    private boolean isUsdTransfer(Transaction txn) {
+    static boolean isUsdTransfer(Transaction txn) {
         return "USD".equals(txn.getCurrency()) && txn.getType() == TransactionType.TRANSFER;
     }
 
-    private boolean isValidApproval(Approval approval, Transaction txn) {
+    static boolean isValidApproval(Approval approval, Transaction txn) {
         return approval != null && approval.isManagerApproved() && approval.getDate().after(txn.getDate());
     }
 
-    private void logApproval(Account account, Transaction txn, Approval approval) {
-        LOGGER.log(java.util.logging.Level.INFO,
-                "Account: {0}, Transaction: {1}, Approved by: {2}, Approved by: {3}",
-                new Object[]{account.getId(), txn.getId(), approval.getManagerId(), approval.getManagerId()});
-    }
-
     private static final Logger LOGGER = Logger.getLogger(BetterControlStructures.class.getName());
 
     public static void main(String[] args) {
@@ -1,63 +1,218 @@
 package com.dev2next.cognitiveload;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
-import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.TreeSet;
 import java.util.logging.Logger;
-import static java.util.stream.Collectors.groupingBy;
-import static java.util.stream.Collectors.mapping;
-import static java.util.stream.Collectors.toCollection;
+import java.util.stream.Stream;
 
 public class BetterStreamsAndLambdas {
 
+    private static final int MAX_CITIES = 5;
+    static final double HIGH_VALUE_THRESHOLD = 100;
+    private static final NameCache NAMES = new NameCache(10_000, BetterStreamsAndLambdas::normalizeNameUncached);
+
     // This version simplifies stream and lambda usage by:
     // - Using clear variable names and straightforward method references
     // - Avoiding nested or overly clever stream operations that obscure intent
     // - Presenting logic in a linear, easy-to-follow manner
     // Compared to CleverStreamsAndLambdas, this reduces extraneous complexity and cognitive load,
     // making it easier for others to understand, maintain, and debug the code.
+    //
+    // The five cities are the first five seen with a high-value order. Filtering,
+    // grouping, limiting and joining happen in a single pass, so users
+    // of cities beyond the first five are skipped instead of sorted and dropped.
     static Map<String, String> improvedStreamUsage(List<User> users) {
-        Map<String, TreeSet<String>> highValueOrdersByCity = users.stream()
-                .filter(BetterStreamsAndLambdas::hasHighValueOrder)
-                .collect(groupingBy(
-                        BetterStreamsAndLambdas::cityOf,
-                        HashMap::new,
-                        mapping(u -> normalizeName(u.getName()), toCollection(TreeSet::new))
-                ));
-
-        return highValueOrdersByCity.entrySet().stream()
-                .filter(e -> e.getKey() != null)
-                .limit(5)
-                .collect(LinkedHashMap::new,
-                        (m, e) -> m.put(e.getKey(), String.join(",", e.getValue())),
-                        Map::putAll);
+        return improvedStreamUsage(users.stream());
+    }
+
+    /**
+     * Parallel version of {@link #improvedStreamUsage(List)} with exactly the
+     * same result. Runs in the common fork/join pool, or in the pool of the
+     * calling task.
+     */
+    static Map<String, String> improvedStreamUsageParallel(List<User> users) {
+        return CityNamesCollector.namesByCityInParallel(users,
+                BetterStreamsAndLambdas::hasHighValueOrder,
+                BetterStreamsAndLambdas::cityOf,
+                u -> normalizeName(u.getName()),
+                MAX_CITIES);
+    }
+
+    /**
+     * {@link #improvedStreamUsage(List)} over a stream, such as the users of
+     * a file from {@link UserFileReader}, without collecting them in a list
+     * first. On a sequential stream no user is kept after it was looked at;
+     * parallel streams get the combinable collector, with the same result.
+     */
+    static Map<String, String> improvedStreamUsage(Stream<User> users) {
+        return CityNamesCollector.collect(users,
+                BetterStreamsAndLambdas::hasHighValueOrder,
+                BetterStreamsAndLambdas::cityOf,
+                u -> normalizeName(u.getName()),
+                MAX_CITIES);
+    }
+
+    /**
+     * {@link #improvedStreamUsage(List)} straight from a CSV or JSON-lines
+     * file, read in parallel when {@code parallel} is set. A sequential read
+     * holds one parsed user at a time besides the names of the reported
+     * cities; a parallel one also holds the names of every city until the
+     * chunks are merged.
+     */
+    static Map<String, String> improvedStreamUsage(Path file, boolean parallel) throws IOException {
+        try (Stream<User> users = UserFileReader.read(file)) {
+            return improvedStreamUsage(parallel ? users.parallel() : users);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Same result as {@link #improvedStreamUsage(List)}, for inputs whose
+     * names do not fit in memory: once the names held exceed
+     * {@code memoryBudgetBytes}, they are spilled to sorted run files in
+     * {@code tempDirectory}, which are merged at the end and then deleted.
+     * The budget bounds the grouping only; the returned joined strings are all
+     * in memory. Use {@link #improvedStreamUsage(Iterable, long, Path, Appendable)}
+     * when they do not fit either.
+     */
+    static Map<String, String> improvedStreamUsage(Iterable<User> users, long memoryBudgetBytes, Path tempDirectory)
+            throws IOException {
+        try (SpillingCityNames names = new SpillingCityNames(MAX_CITIES, memoryBudgetBytes, tempDirectory)) {
+            addHighValueNames(users, names);
+            return names.result();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Like {@link #improvedStreamUsage(Iterable, long, Path)}, but writes the
+     * result to {@code out} as one {@code city: names} line per city instead of
+     * returning it, merging the spilled names straight into {@code out}. Heap
+     * use stays within {@code memoryBudgetBytes} plus whatever {@code out}
+     * buffers.
+     */
+    static void improvedStreamUsage(Iterable<User> users, long memoryBudgetBytes, Path tempDirectory,
+            Appendable out) throws IOException {
+        try (SpillingCityNames names = new SpillingCityNames(MAX_CITIES, memoryBudgetBytes, tempDirectory)) {
+            addHighValueNames(users, names);
+            for (String city : names.cities()) {
+                out.append(city).append(": ");
+                names.writeNames(city, out);
+                out.append('\n');
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static void addHighValueNames(Iterable<User> users, SpillingCityNames names) {
+        for (User user : users) {
+            String city = cityOf(user);
+            if (names.accepts(city) && hasHighValueOrder(user)) {
+                names.add(city, normalizeName(user.getName()));
+            }
+        }
     }
 
     private static boolean hasHighValueOrder(User u) {
-        return u.getOrders().stream().anyMatch(o -> o.getTotal() > 100);
+        return u.hasOrderAbove(HIGH_VALUE_THRESHOLD);
     }
 
     private static String normalizeName(String name) {
+        return NAMES.normalize(name);
+    }
+
+    private static String normalizeNameUncached(String name) {
         return name == null ? "" : name.trim().toUpperCase();
     }
 
+    /**
+     * A live, incrementally maintained version of
+     * {@link #improvedStreamUsage(List)} for the users added to it.
+     */
+    static CityNamesView newCityNamesView() {
+        return new CityNamesView(HIGH_VALUE_THRESHOLD, MAX_CITIES, u -> normalizeName(u.getName()));
+    }
+
+    /**
+     * The cache behind the name normalization, for its statistics.
+     */
+    static NameCache nameCache() {
+        return NAMES;
+    }
+
     private static String cityOf(User u) {
         return u.getAddress().getCity();
     }
 
+    /**
+     * A user with their orders.
+     *
+     * <p>
+     * The order count, sum and maximum total are kept up to date as orders are
+     * added, so questions like "has an order above X" never walk the orders.
+     * Orders are only added through {@link #addOrder(Order)};
+     * {@link #getOrders()} returns a copy. Adding orders is thread-safe, and
+     * the orders and aggregates may be read while orders are being added.
+     * </p>
+     */
     static class User {
 
         private final String name;
-        private final Address address;
+        private volatile Address address;
         private final List<Order> orders;
+        private volatile double maxOrderTotal = Double.NEGATIVE_INFINITY;
+        private int orderCount;
+        private double orderSum;
 
         User(String name, Address address, List<Order> orders) {
             this.name = name;
             this.address = address;
-            this.orders = orders;
+            this.orders = new ArrayList<>(orders.size());
+            orders.forEach(this::addOrder);
+        }
+
+        /**
+         * Adds an order and updates the aggregates.
+         *
+         * @return {@code true} if the order raised the maximum order total
+         */
+        synchronized boolean addOrder(Order order) {
+            orders.add(order);
+            orderCount++;
+            orderSum += order.getTotal();
+            // NaN totals never compare greater, so they never become the max.
+            if (order.getTotal() > maxOrderTotal) {
+                maxOrderTotal = order.getTotal();
+                return true;
+            }
+            return false;
+        }
+
+        /**
+         * The largest order total, or negative infinity without orders.
+         */
+        double getMaxOrderTotal() {
+            return maxOrderTotal;
+        }
+
+        boolean hasOrderAbove(double threshold) {
+            return maxOrderTotal > threshold;
+        }
+
+        synchronized int getOrderCount() {
+            return orderCount;
+        }
+
+        synchronized double getOrderSum() {
+            return orderSum;
         }
 
         public String getName() {
@@ -68,8 +223,20 @@ public class BetterStreamsAndLambdas {
             return address;
         }
 
-        public List<Order> getOrders() {
-            return orders;
+        /**
+         * Moves the user. If the user is in a {@link CityNamesView}, move
+         * them through the view instead, so it follows.
+         */
+        void setAddress(Address address) {
+            this.address = address;
+        }
+
+        /**
+         * A snapshot of the orders, taken under the lock that guards
+         * {@link #addOrder(Order)}.
+         */
+        public synchronized List<Order> getOrders() {
+            return new ArrayList<>(orders);
         }
     }
 
@@ -116,5 +283,6 @@ public class BetterStreamsAndLambdas {
         logger.info("\nimprovedStreamUsage:");
         Map<String, String> goodResult = improvedStreamUsage(users);
         goodResult.forEach((city, names) -> logger.log(java.util.logging.Level.INFO, "{0}: {1}", new Object[]{city, names}));
+        logger.info(NAMES.toString());
     }
 }
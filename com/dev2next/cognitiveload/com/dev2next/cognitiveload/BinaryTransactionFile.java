@@ -0,0 +1,632 @@
+package com.dev2next.cognitiveload;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact binary file of accounts, transactions and approvals, read through
+ * memory-mapped flyweights.
+ *
+ * <p>
+ * Layout, big-endian, strings as {@code [short length][UTF-8]} with length
+ * -1 for null and dates as epoch millis with {@link Long#MIN_VALUE} for null:
+ * </p>
+ * <pre>
+ * header:      int magic, int version, long accountCount, long dictionaryOffset
+ * account:     int length, byte active, string id, int txnCount, transaction...
+ * transaction: int length, string id, double amount, short currency, byte type,
+ *              long date, int approvalCount, approval...
+ * approval:    byte approved, long date, string managerId
+ * dictionary:  int count, string...
+ * </pre>
+ *
+ * <p>
+ * Currencies are codes into the dictionary and types are ordinals (-1 for
+ * null). The length prefixes let a reader skip an inactive account or an
+ * uninteresting transaction without walking its contents.
+ * </p>
+ *
+ * <p>
+ * Opening a file only reads the header and the dictionary. The data is mapped
+ * in windows of at most {@link #DEFAULT_WINDOW_SIZE} bytes, always starting at
+ * an account, so files larger than 2 GB work as long as each single account
+ * fits in a window. {@link AccountView}, {@link TransactionView} and
+ * {@link ApprovalView} are cursors that read fields straight from the mapped
+ * buffer: numeric getters never allocate, string getters return dictionary
+ * instances or decode only when called. A file may be read by several threads,
+ * each with its own {@link #accounts()} cursor.
+ * </p>
+ */
+final class BinaryTransactionFile implements Closeable {
+
+    static final int DEFAULT_WINDOW_SIZE = 1 << 30;
+
+    private static final int MAGIC = 0x54584E42; // "TXNB"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 2 * Integer.BYTES + 2 * Long.BYTES;
+    private static final long NO_DATE = Long.MIN_VALUE;
+    private static final short NO_CURRENCY = -1;
+    private static final byte NO_TYPE = -1;
+    private static final TransactionType[] TYPES = TransactionType.values();
+
+    private final FileChannel channel;
+    private final long accountCount;
+    private final long dataEnd;
+    private final int windowSize;
+    private final String[] currencies;
+    private final Map<String, Short> currencyCodes = new HashMap<>();
+
+    private BinaryTransactionFile(FileChannel channel, int windowSize) throws IOException {
+        this.channel = channel;
+        this.windowSize = windowSize;
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        readFully(channel, header, 0);
+        header.flip();
+        if (header.getInt() != MAGIC) {
+            throw new IOException("Not a binary transaction file");
+        }
+        int version = header.getInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported version " + version);
+        }
+        this.accountCount = header.getLong();
+        this.dataEnd = header.getLong();
+
+        ByteBuffer dictionary = ByteBuffer.allocate((int) (channel.size() - dataEnd));
+        readFully(channel, dictionary, dataEnd);
+        dictionary.flip();
+        this.currencies = new String[dictionary.getInt()];
+        byte[] scratch = new byte[64];
+        for (int i = 0; i < currencies.length; i++) {
+            int length = dictionary.getShort();
+            if (scratch.length < length) {
+                scratch = new byte[length];
+            }
+            dictionary.get(scratch, 0, length);
+            currencies[i] = new String(scratch, 0, length, StandardCharsets.UTF_8);
+            currencyCodes.put(currencies[i], (short) i);
+        }
+    }
+
+    static BinaryTransactionFile open(Path file) throws IOException {
+        return open(file, DEFAULT_WINDOW_SIZE);
+    }
+
+    static BinaryTransactionFile open(Path file, int windowSize) throws IOException {
+        if (windowSize < HEADER_SIZE) {
+            throw new IllegalArgumentException("Window size too small: " + windowSize);
+        }
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            return new BinaryTransactionFile(channel, windowSize);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Writes {@code accounts} to {@code file}, replacing it. Null accounts,
+     * transactions and approvals are dropped, as the scans would skip them
+     * anyway.
+     *
+     * @return the number of accounts written
+     */
+    static long write(Iterator<Account> accounts, Path file) throws IOException {
+        try (FileChannel out = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            Writer writer = new Writer(out);
+            long count = 0;
+            while (accounts.hasNext()) {
+                Account account = accounts.next();
+                if (account != null) {
+                    writer.account(account);
+                    count++;
+                }
+            }
+            writer.finish(count);
+            return count;
+        }
+    }
+
+    long accountCount() {
+        return accountCount;
+    }
+
+    /**
+     * A new cursor positioned before the first account.
+     */
+    AccountView accounts() {
+        return new AccountView();
+    }
+
+    List<ApprovedTransfer> findApprovedUsdTransfers() throws IOException {
+        List<ApprovedTransfer> matches = new ArrayList<>();
+        findApprovedTransfers("USD", TransactionType.TRANSFER, (accountId, transactionId, managerId)
+                -> matches.add(new ApprovedTransfer(accountId, transactionId, managerId)));
+        return matches;
+    }
+
+    /**
+     * Emits, in file order, every manager approval dated after its
+     * transaction, for positive transactions of {@code currency} and
+     * {@code type} on active accounts. An approval or transaction without a
+     * date never matches. Only matches allocate.
+     */
+    void findApprovedTransfers(String currency, TransactionType type, ResultSink sink)
+            throws IOException {
+        Short code = currencyCodes.get(currency);
+        if (code == null || type == null) {
+            return;
+        }
+        AccountView account = accounts();
+        while (account.next()) {
+            if (!account.isActive()) {
+                continue;
+            }
+            TransactionView txn = account.getTransactions();
+            while (txn.next()) {
+                if (!(txn.getAmount() > 0) || txn.currencyCode() != code || txn.typeOrdinal() != type.ordinal()) {
+                    continue;
+                }
+                long txnDate = txn.getDateMillis();
+                if (txnDate == NO_DATE) {
+                    continue;
+                }
+                ApprovalView approval = txn.getApprovals();
+                while (approval.next()) {
+                    if (approval.isManagerApproved() && approval.getDateMillis() > txnDate) {
+                        sink.write(account.getId(), txn.getId(), approval.getManagerId());
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Adapts the file to the {@link TransactionSource} consumed by
+     * {@link TransactionScanner} and friends. This materializes each
+     * transaction; prefer the views where allocation matters.
+     */
+    TransactionSource asSource() {
+        AccountView account = accounts();
+        return new TransactionSource() {
+            private TransactionView txn;
+
+            @Override
+            public boolean nextAccount() throws IOException {
+                txn = null;
+                if (!account.next()) {
+                    return false;
+                }
+                txn = account.getTransactions();
+                return true;
+            }
+
+            @Override
+            public String accountId() {
+                return account.getId();
+            }
+
+            @Override
+            public boolean accountActive() {
+                return account.isActive();
+            }
+
+            @Override
+            public Transaction nextTransaction() {
+                return txn != null && txn.next() ? txn.toTransaction() : null;
+            }
+
+            @Override
+            public void close() {
+                // The file owns the channel.
+            }
+        };
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Cursor over the accounts of the file. Owns the mapped window; the
+     * transaction and approval views it hands out read from the same window
+     * and are only valid until the next call to {@link #next()}.
+     */
+    final class AccountView {
+
+        private final TransactionView transactions = new TransactionView(this);
+        private byte[] scratch = new byte[64];
+        private MappedByteBuffer window;
+        private long windowStart;
+        private long nextOffset = HEADER_SIZE;
+        private long remaining = accountCount;
+        private int position;
+        private int idLength;
+        private int end;
+
+        private AccountView() {
+        }
+
+        boolean next() throws IOException {
+            if (remaining == 0) {
+                return false;
+            }
+            remaining--;
+            ensureMapped(nextOffset, Integer.BYTES);
+            int length = window.getInt((int) (nextOffset - windowStart));
+            ensureMapped(nextOffset, Integer.BYTES + (long) length);
+            position = (int) (nextOffset - windowStart) + Integer.BYTES;
+            end = position + length;
+            idLength = window.getShort(position + 1);
+            nextOffset += Integer.BYTES + (long) length;
+            return true;
+        }
+
+        boolean isActive() {
+            return window.get(position) != 0;
+        }
+
+        String getId() {
+            return readString(position + 1);
+        }
+
+        int getTransactionCount() {
+            return window.getInt(afterId());
+        }
+
+        /**
+         * The transactions of the current account; the returned view is
+         * shared and rewound by every call.
+         */
+        TransactionView getTransactions() {
+            int first = afterId() + Integer.BYTES;
+            transactions.reset(first, window.getInt(afterId()));
+            return transactions;
+        }
+
+        private int afterId() {
+            return position + 1 + Short.BYTES + Math.max(idLength, 0);
+        }
+
+        private String readString(int at) {
+            int length = window.getShort(at);
+            if (length < 0) {
+                return null;
+            }
+            if (scratch.length < length) {
+                scratch = new byte[length];
+            }
+            for (int i = 0; i < length; i++) {
+                scratch[i] = window.get(at + Short.BYTES + i);
+            }
+            return new String(scratch, 0, length, StandardCharsets.UTF_8);
+        }
+
+        private void ensureMapped(long offset, long size) throws IOException {
+            if (window != null && offset >= windowStart && offset + size <= windowStart + window.limit()) {
+                return;
+            }
+            if (offset + size > dataEnd) {
+                throw new IOException("Truncated account record at offset " + offset);
+            }
+            long mapSize = Math.min(Math.max(windowSize, size), dataEnd - offset);
+            if (mapSize > Integer.MAX_VALUE) {
+                throw new IOException("Account record at offset " + offset + " is larger than 2 GB");
+            }
+            window = channel.map(FileChannel.MapMode.READ_ONLY, offset, mapSize);
+            windowStart = offset;
+        }
+    }
+
+    /**
+     * Cursor over the transactions of one account. Mirrors the getters of
+     * {@link Transaction}; {@link #getDate()} and {@link #getId()} allocate,
+     * their primitive counterparts do not.
+     */
+    final class TransactionView {
+
+        private final AccountView account;
+        private final ApprovalView approvals;
+        private int nextPosition;
+        private int remaining;
+        private int position;
+        private int fields;
+
+        private TransactionView(AccountView account) {
+            this.account = account;
+            this.approvals = new ApprovalView(account);
+        }
+
+        private void reset(int first, int count) {
+            nextPosition = first;
+            remaining = count;
+        }
+
+        boolean next() {
+            if (remaining == 0) {
+                return false;
+            }
+            remaining--;
+            ByteBuffer window = account.window;
+            position = nextPosition + Integer.BYTES;
+            nextPosition = position + window.getInt(nextPosition);
+            fields = position + Short.BYTES + Math.max(window.getShort(position), 0);
+            return true;
+        }
+
+        String getId() {
+            return account.readString(position);
+        }
+
+        double getAmount() {
+            return account.window.getDouble(fields);
+        }
+
+        String getCurrency() {
+            short code = currencyCode();
+            return code == NO_CURRENCY ? null : currencies[code];
+        }
+
+        TransactionType getType() {
+            byte ordinal = typeOrdinal();
+            return ordinal == NO_TYPE ? null : TYPES[ordinal];
+        }
+
+        long getDateMillis() {
+            return account.window.getLong(fields + Double.BYTES + Short.BYTES + 1);
+        }
+
+        Date getDate() {
+            long millis = getDateMillis();
+            return millis == NO_DATE ? null : new Date(millis);
+        }
+
+        int getApprovalCount() {
+            return account.window.getInt(approvalCountPosition());
+        }
+
+        /**
+         * The approvals of the current transaction; the returned view is
+         * shared and rewound by every call.
+         */
+        ApprovalView getApprovals() {
+            int countPosition = approvalCountPosition();
+            approvals.reset(countPosition + Integer.BYTES, account.window.getInt(countPosition));
+            return approvals;
+        }
+
+        /**
+         * Copies the current transaction into a heap {@link Transaction}.
+         */
+        Transaction toTransaction() {
+            List<Approval> copied = new ArrayList<>(getApprovalCount());
+            ApprovalView approval = getApprovals();
+            while (approval.next()) {
+                copied.add(new Approval(approval.getManagerId(), approval.isManagerApproved(), approval.getDate()));
+            }
+            return new Transaction(getId(), getAmount(), getCurrency(), getType(), getDate(), copied);
+        }
+
+        private short currencyCode() {
+            return account.window.getShort(fields + Double.BYTES);
+        }
+
+        private byte typeOrdinal() {
+            return account.window.get(fields + Double.BYTES + Short.BYTES);
+        }
+
+        private int approvalCountPosition() {
+            return fields + Double.BYTES + Short.BYTES + 1 + Long.BYTES;
+        }
+    }
+
+    /**
+     * Cursor over the approvals of one transaction.
+     */
+    final class ApprovalView {
+
+        private final AccountView account;
+        private int nextPosition;
+        private int remaining;
+        private int position;
+
+        private ApprovalView(AccountView account) {
+            this.account = account;
+        }
+
+        private void reset(int first, int count) {
+            nextPosition = first;
+            remaining = count;
+        }
+
+        boolean next() {
+            if (remaining == 0) {
+                return false;
+            }
+            remaining--;
+            position = nextPosition;
+            int idLength = account.window.getShort(position + 1 + Long.BYTES);
+            nextPosition = position + 1 + Long.BYTES + Short.BYTES + Math.max(idLength, 0);
+            return true;
+        }
+
+        boolean isManagerApproved() {
+            return account.window.get(position) != 0;
+        }
+
+        long getDateMillis() {
+            return account.window.getLong(position + 1);
+        }
+
+        Date getDate() {
+            long millis = getDateMillis();
+            return millis == NO_DATE ? null : new Date(millis);
+        }
+
+        String getManagerId() {
+            return account.readString(position + 1 + Long.BYTES);
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of file");
+            }
+        }
+    }
+
+    /**
+     * Serializes one account at a time into a reusable buffer, then writes it
+     * out with a single channel write.
+     */
+    private static final class Writer {
+
+        private final FileChannel out;
+        private final Map<String, Short> currencyCodes = new HashMap<>();
+        private final List<String> currencies = new ArrayList<>();
+        private ByteBuffer record = ByteBuffer.allocate(64 * 1024);
+        private long offset = HEADER_SIZE;
+
+        Writer(FileChannel out) {
+            this.out = out;
+        }
+
+        void account(Account account) throws IOException {
+            record.clear();
+            putInt(0); // length, patched below
+            putByte(account.isActive() ? 1 : 0);
+            putString(account.getId());
+            int countPosition = record.position();
+            putInt(0);
+            int count = 0;
+            for (Transaction txn : account.getTransactions()) {
+                if (txn != null) {
+                    transaction(txn);
+                    count++;
+                }
+            }
+            record.putInt(countPosition, count);
+            record.putInt(0, record.position() - Integer.BYTES);
+            record.flip();
+            offset += writeFully(record, offset);
+        }
+
+        private void transaction(Transaction txn) {
+            int start = record.position();
+            putInt(0);
+            putString(txn.getId());
+            ensure(Double.BYTES + Short.BYTES + 1 + Long.BYTES + Integer.BYTES);
+            record.putDouble(txn.getAmount());
+            record.putShort(currencyCode(txn.getCurrency()));
+            record.put(txn.getType() == null ? NO_TYPE : (byte) txn.getType().ordinal());
+            record.putLong(millis(txn.getDate()));
+            int countPosition = record.position();
+            record.putInt(0);
+            int count = 0;
+            for (Approval approval : txn.getApprovals()) {
+                if (approval != null) {
+                    putByte(approval.isManagerApproved() ? 1 : 0);
+                    ensure(Long.BYTES);
+                    record.putLong(millis(approval.getDate()));
+                    putString(approval.getManagerId());
+                    count++;
+                }
+            }
+            record.putInt(countPosition, count);
+            record.putInt(start, record.position() - start - Integer.BYTES);
+        }
+
+        void finish(long accountCount) throws IOException {
+            record.clear();
+            putInt(currencies.size());
+            for (String currency : currencies) {
+                putString(currency);
+            }
+            record.flip();
+            writeFully(record, offset);
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(VERSION).putLong(accountCount).putLong(offset);
+            header.flip();
+            writeFully(header, 0);
+        }
+
+        private short currencyCode(String currency) {
+            if (currency == null) {
+                return NO_CURRENCY;
+            }
+            Short code = currencyCodes.get(currency);
+            if (code == null) {
+                if (currencies.size() == Short.MAX_VALUE) {
+                    throw new IllegalStateException("Too many distinct currencies");
+                }
+                code = (short) currencies.size();
+                currencyCodes.put(currency, code);
+                currencies.add(currency);
+            }
+            return code;
+        }
+
+        private void putInt(int value) {
+            ensure(Integer.BYTES);
+            record.putInt(value);
+        }
+
+        private void putByte(int value) {
+            ensure(1);
+            record.put((byte) value);
+        }
+
+        private void putString(String value) {
+            if (value == null) {
+                ensure(Short.BYTES);
+                record.putShort((short) -1);
+                return;
+            }
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            if (bytes.length > Short.MAX_VALUE) {
+                throw new IllegalArgumentException("String longer than " + Short.MAX_VALUE + " bytes");
+            }
+            ensure(Short.BYTES + bytes.length);
+            record.putShort((short) bytes.length);
+            record.put(bytes);
+        }
+
+        private void ensure(int bytes) {
+            if (record.remaining() < bytes) {
+                ByteBuffer larger = ByteBuffer.allocate(Math.max(record.capacity() * 2, record.position() + bytes));
+                record.flip();
+                larger.put(record);
+                record = larger;
+            }
+        }
+
+        private int writeFully(ByteBuffer buffer, long position) throws IOException {
+            int written = 0;
+            while (buffer.hasRemaining()) {
+                written += out.write(buffer, position + written);
+            }
+            return written;
+        }
+
+        private static long millis(Date date) {
+            return date == null ? NO_DATE : date.getTime();
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package com.dev2next.cognitiveload;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Scaling of {@link BetterStreamsAndLambdas#improvedStreamUsageParallel(List)}
+ * from one core to all available cores, against the sequential
+ * {@link BetterStreamsAndLambdas#improvedStreamUsage(List)}.
+ *
+ * <p>
+ * Usage: {@code CityAggregationBenchmark [users]}, by default 2,000,000
+ * seeded users spread over 1,000 cities and sharing 5,000 distinct names. The
+ * parallel version runs inside a dedicated {@link ForkJoinPool} of 1, 2, 4...
+ * threads up to the number of available processors, and every result is
+ * checked against the sequential one.
+ * </p>
+ */
+public class CityAggregationBenchmark {
+
+    private static final Logger LOGGER = Logger.getLogger(CityAggregationBenchmark.class.getName());
+
+    private static final int DEFAULT_USERS = 2_000_000;
+    private static final int CITIES = 1_000;
+    private static final int DISTINCT_NAMES = 5_000;
+    private static final int WARMUP_ITERATIONS = 3;
+    private static final int MEASURED_ITERATIONS = 5;
+
+    public static void main(String[] args) throws InterruptedException, ExecutionException {
+        int count = args.length == 0 ? DEFAULT_USERS : Integer.parseInt(args[0]);
+        List<BetterStreamsAndLambdas.User> users = generate(count, 42);
+
+        Map<String, String> expected = BetterStreamsAndLambdas.improvedStreamUsage(users);
+        long sequential = measure(() -> BetterStreamsAndLambdas.improvedStreamUsage(users), expected);
+        LOGGER.log(Level.INFO, "{0} users, sequential: {1} ms", new Object[]{count, sequential / 1_000_000});
+
+        int cores = Runtime.getRuntime().availableProcessors();
+        for (int threads = 1; threads <= cores; threads = threads < cores ? Math.min(threads * 2, cores) : cores + 1) {
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            try {
+                long elapsed = pool.submit(() -> measure(
+                        () -> BetterStreamsAndLambdas.improvedStreamUsageParallel(users), expected)).get();
+                LOGGER.log(Level.INFO, "parallel, {0} threads: {1} ms ({2}x sequential)",
+                        new Object[]{threads, elapsed / 1_000_000,
+                            String.format("%.2f", (double) sequential / elapsed)});
+            } finally {
+                pool.shutdown();
+            }
+        }
+    }
+
+    /**
+     * @return the mean time of one run, in nanoseconds
+     */
+    private static long measure(Supplier<Map<String, String>> run, Map<String, String> expected) {
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            run.get();
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+            Map<String, String> result = run.get();
+            if (!result.equals(expected) || !new ArrayList<>(result.keySet()).equals(new ArrayList<>(expected.keySet()))) {
+                throw new IllegalStateException("Result differs from the sequential run: " + result);
+            }
+        }
+        return (System.nanoTime() - start) / MEASURED_ITERATIONS;
+    }
+
+    static List<BetterStreamsAndLambdas.User> generate(int count, long seed) {
+        SplittableRandom random = new SplittableRandom(seed);
+        List<BetterStreamsAndLambdas.User> users = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int orders = random.nextInt(4);
+            BetterStreamsAndLambdas.Order[] placed = new BetterStreamsAndLambdas.Order[orders];
+            for (int o = 0; o < orders; o++) {
+                placed[o] = new BetterStreamsAndLambdas.Order(random.nextInt(15_000) / 100.0);
+            }
+            // Squaring skews the distribution so a few cities are much larger.
+            double skew = random.nextDouble();
+            String city = "City " + (int) (skew * skew * CITIES);
+            users.add(new BetterStreamsAndLambdas.User(" user" + random.nextInt(DISTINCT_NAMES) + " ",
+                    new BetterStreamsAndLambdas.Address(city), Arrays.asList(placed)));
+        }
+        return users;
+    }
+}
@@ -0,0 +1,205 @@
+package com.dev2next.cognitiveload;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.BiConsumer;
+import java.util.function.BinaryOperator;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.stream.Collector;
+import java.util.stream.Stream;
+
+/**
+ * Single-pass grouping behind
+ * {@link BetterStreamsAndLambdas#improvedStreamUsage(java.util.List)}: the
+ * sorted, comma-joined names of the selected users of the first {@code maxCities}
+ * cities, in the order the cities are first seen.
+ *
+ * <p>
+ * The group-then-limit version sorts and stores the names of every city, then
+ * throws most of them away. {@link #collect(Stream, Predicate, Function, Function, int)}
+ * gives only the first {@code maxCities} cities a name set when the stream is
+ * sequential. Once that many cities are known, users of any other city are
+ * skipped before the (comparatively expensive) selection predicate runs, and
+ * before their name is normalized, and nothing of them is kept. A city only
+ * counts once one of its users is selected. Users without a city are skipped.
+ * </p>
+ *
+ * <p>
+ * The element type is generic, so both {@code User} models can share it.
+ * </p>
+ *
+ * <p>
+ * A city that is beyond the cap within one chunk of a parallel stream may
+ * still be among the first cities overall, so the {@link #namesByCity}
+ * collector, which may be combined, collects every city it sees, uncapped.
+ * Partial results are merged left to right, the later chunk's new cities
+ * going after the earlier chunk's, so the merged map lists cities in global
+ * first-encounter order and the cap applied at the end picks the same cities,
+ * with the same names, as a sequential run. {@code collect} uses it for
+ * parallel streams.
+ * </p>
+ *
+ * <p>
+ * When the users are in a collection that can be streamed twice,
+ * {@link #namesByCityInParallel} avoids collecting every city. It first finds
+ * the cities in parallel, with a per-chunk cap (a city that is not among the
+ * first {@code maxCities} of its chunk has at least that many cities before
+ * it overall), and then collects names for those cities only.
+ * </p>
+ */
+final class CityNamesCollector<T> implements Collector<T, Map<String, TreeSet<String>>, Map<String, String>> {
+
+    private final Predicate<? super T> selected;
+    private final Function<? super T, String> city;
+    private final Function<? super T, String> name;
+    private final int maxCities;
+    private final boolean capped;
+
+    private CityNamesCollector(Predicate<? super T> selected, Function<? super T, String> city,
+            Function<? super T, String> name, int maxCities, boolean capped) {
+        if (maxCities < 0) {
+            throw new IllegalArgumentException("maxCities must not be negative: " + maxCities);
+        }
+        this.selected = selected;
+        this.city = city;
+        this.name = name;
+        this.maxCities = maxCities;
+        this.capped = capped;
+    }
+
+    /**
+     * A collector that is correct on sequential and parallel streams. Every
+     * city with a selected user is collected until the end; prefer
+     * {@link #collect(Stream, Predicate, Function, Function, int)}, which
+     * avoids that on sequential streams.
+     *
+     * @param selected which users to keep, for example those with a high-value
+     * order
+     * @param city the grouping key of a user
+     * @param name the (normalized) name of a user
+     * @param maxCities how many cities to report
+     */
+    static <T> CityNamesCollector<T> namesByCity(Predicate<? super T> selected, Function<? super T, String> city,
+            Function<? super T, String> name, int maxCities) {
+        return new CityNamesCollector<>(selected, city, name, maxCities, false);
+    }
+
+    /**
+     * Same result as {@code users.collect(namesByCity(...))}. A sequential
+     * stream is collected into a single partial result, so cities beyond the
+     * first {@code maxCities} are skipped as they come; a parallel one uses
+     * {@link #namesByCity}.
+     */
+    static <T> Map<String, String> collect(Stream<? extends T> users, Predicate<? super T> selected,
+            Function<? super T, String> city, Function<? super T, String> name, int maxCities) {
+        if (users.isParallel()) {
+            return users.collect(namesByCity(selected, city, name, maxCities));
+        }
+        CityNamesCollector<T> collector = new CityNamesCollector<>(selected, city, name, maxCities, true);
+        Map<String, TreeSet<String>> names = collector.supplier().get();
+        BiConsumer<Map<String, TreeSet<String>>, T> accumulator = collector.accumulator();
+        users.forEachOrdered(user -> accumulator.accept(names, user));
+        return collector.finisher().apply(names);
+    }
+
+    /**
+     * Two-pass parallel equivalent of
+     * {@code collect(users.stream(), ...)}.
+     */
+    static <T> Map<String, String> namesByCityInParallel(Collection<? extends T> users,
+            Predicate<? super T> selected, Function<? super T, String> city, Function<? super T, String> name,
+            int maxCities) {
+        Set<String> firstCities = users.parallelStream().collect(
+                LinkedHashSet::new,
+                (cities, user) -> {
+                    if (cities.size() < maxCities) {
+                        String key = city.apply(user);
+                        if (key != null && !cities.contains(key) && selected.test(user)) {
+                            cities.add(key);
+                        }
+                    }
+                },
+                (left, right) -> {
+                    for (Iterator<String> it = right.iterator(); it.hasNext() && left.size() < maxCities;) {
+                        left.add(it.next());
+                    }
+                });
+        return users.parallelStream()
+                .filter(user -> firstCities.contains(city.apply(user)))
+                .collect(namesByCity(selected, city, name, maxCities));
+    }
+
+    @Override
+    public Supplier<Map<String, TreeSet<String>>> supplier() {
+        return LinkedHashMap::new;
+    }
+
+    @Override
+    public BiConsumer<Map<String, TreeSet<String>>, T> accumulator() {
+        return (names, user) -> {
+            String key = city.apply(user);
+            if (key == null) {
+                return;
+            }
+            TreeSet<String> cityNames = names.get(key);
+            if (cityNames == null && capped && names.size() >= maxCities) {
+                return;
+            }
+            if (!selected.test(user)) {
+                return;
+            }
+            if (cityNames == null) {
+                cityNames = new TreeSet<>();
+                names.put(key, cityNames);
+            }
+            cityNames.add(name.apply(user));
+        };
+    }
+
+    @Override
+    public BinaryOperator<Map<String, TreeSet<String>>> combiner() {
+        return (left, right) -> {
+            right.forEach((key, rightNames) -> {
+                TreeSet<String> leftNames = left.get(key);
+                if (leftNames == null) {
+                    left.put(key, rightNames);
+                } else if (leftNames.size() >= rightNames.size()) {
+                    leftNames.addAll(rightNames);
+                } else {
+                    // Replacing the value keeps the key's position.
+                    rightNames.addAll(leftNames);
+                    left.put(key, rightNames);
+                }
+            });
+            return left;
+        };
+    }
+
+    @Override
+    public Function<Map<String, TreeSet<String>>, Map<String, String>> finisher() {
+        return names -> {
+            Map<String, String> joined = new LinkedHashMap<>();
+            for (Map.Entry<String, TreeSet<String>> entry : names.entrySet()) {
+                if (joined.size() == maxCities) {
+                    break;
+                }
+                joined.put(entry.getKey(), String.join(",", entry.getValue()));
+            }
+            return joined;
+        };
+    }
+
+    @Override
+    public Set<Characteristics> characteristics() {
+        return Collections.unmodifiableSet(EnumSet.noneOf(Characteristics.class));
+    }
+}
@@ -0,0 +1,197 @@
+package com.dev2next.cognitiveload;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.function.Function;
+
+import com.dev2next.cognitiveload.BetterStreamsAndLambdas.Address;
+import com.dev2next.cognitiveload.BetterStreamsAndLambdas.Order;
+import com.dev2next.cognitiveload.BetterStreamsAndLambdas.User;
+
+/**
+ * Materialized view of the city to sorted-names report of
+ * {@link BetterStreamsAndLambdas#improvedStreamUsage(java.util.List)}.
+ *
+ * <p>
+ * Instead of regrouping every user on each call, the view is updated as users
+ * are added ({@link #addUser}), gain orders ({@link #addOrder}) and move
+ * ({@link #moveUser}). A user counts for their city once they have an order
+ * above the threshold. {@link #topCities()} returns the same map as the batch
+ * report run over the users in the order they were added, and only touches
+ * the first {@code maxCities} cities.
+ * </p>
+ *
+ * <p>
+ * To keep that equivalence after moves, each city is ordered by the earliest
+ * added of its qualifying users, and each name is counted, so a name only
+ * leaves a city when the last user with that name does. The joined name list
+ * of a city is cached until its names change. All methods are synchronized,
+ * so readers may poll while other threads update.
+ * </p>
+ */
+final class CityNamesView {
+
+    private static final class Member {
+
+        final long sequence;
+        final String name;
+        String city;
+
+        Member(long sequence, String name) {
+            this.sequence = sequence;
+            this.name = name;
+        }
+    }
+
+    private static final class City {
+
+        final String name;
+        final TreeSet<Long> members = new TreeSet<>();
+        final TreeMap<String, Integer> names = new TreeMap<>();
+        String joined;
+
+        City(String name) {
+            this.name = name;
+        }
+
+        String joined() {
+            if (joined == null) {
+                joined = String.join(",", names.keySet());
+            }
+            return joined;
+        }
+    }
+
+    private final double threshold;
+    private final int maxCities;
+    private final Function<User, String> normalizedName;
+    private final Map<User, Member> members = new HashMap<>();
+    private final Map<String, City> cities = new HashMap<>();
+    // Cities with at least one qualifying user, by their earliest one.
+    private final NavigableMap<Long, City> citiesInOrder = new TreeMap<>();
+    private long sequence;
+
+    /**
+     * @param threshold a user counts once an order total is strictly above it
+     * @param maxCities how many cities {@link #topCities()} reports
+     * @param normalizedName the name a user is listed under
+     */
+    CityNamesView(double threshold, int maxCities, Function<User, String> normalizedName) {
+        if (maxCities < 0) {
+            throw new IllegalArgumentException("maxCities must not be negative: " + maxCities);
+        }
+        this.threshold = threshold;
+        this.maxCities = maxCities;
+        this.normalizedName = normalizedName;
+    }
+
+    /**
+     * Adds a user that is not in the view yet, after every user added before.
+     */
+    synchronized void addUser(User user) {
+        if (members.containsKey(user)) {
+            throw new IllegalArgumentException("User already added");
+        }
+        Member member = new Member(sequence++, normalizedName.apply(user));
+        members.put(user, member);
+        if (user.hasOrderAbove(threshold)) {
+            include(member, cityOf(user));
+        }
+    }
+
+    /**
+     * Adds an order to a user of the view.
+     */
+    synchronized void addOrder(User user, Order order) {
+        Member member = memberOf(user);
+        boolean qualified = user.hasOrderAbove(threshold);
+        user.addOrder(order);
+        if (!qualified && user.hasOrderAbove(threshold)) {
+            include(member, cityOf(user));
+        }
+    }
+
+    /**
+     * Changes the address of a user of the view.
+     */
+    synchronized void moveUser(User user, Address address) {
+        Member member = memberOf(user);
+        user.setAddress(address);
+        if (member.city == null && !user.hasOrderAbove(threshold)) {
+            return;
+        }
+        exclude(member);
+        include(member, cityOf(user));
+    }
+
+    /**
+     * The first {@code maxCities} cities with a qualifying user, by the
+     * earliest added such user, each with its sorted, comma-joined names.
+     */
+    synchronized Map<String, String> topCities() {
+        Map<String, String> top = new LinkedHashMap<>();
+        Iterator<City> it = citiesInOrder.values().iterator();
+        while (top.size() < maxCities && it.hasNext()) {
+            City city = it.next();
+            top.put(city.name, city.joined());
+        }
+        return top;
+    }
+
+    synchronized int size() {
+        return members.size();
+    }
+
+    private void include(Member member, String cityName) {
+        if (cityName == null) {
+            return;
+        }
+        City city = cities.computeIfAbsent(cityName, City::new);
+        if (!city.members.isEmpty()) {
+            citiesInOrder.remove(city.members.first());
+        }
+        city.members.add(member.sequence);
+        citiesInOrder.put(city.members.first(), city);
+        if (city.names.merge(member.name, 1, Integer::sum) == 1) {
+            city.joined = null;
+        }
+        member.city = cityName;
+    }
+
+    private void exclude(Member member) {
+        if (member.city == null) {
+            return;
+        }
+        City city = cities.get(member.city);
+        citiesInOrder.remove(city.members.first());
+        city.members.remove(member.sequence);
+        if (city.names.merge(member.name, -1, Integer::sum) == 0) {
+            city.names.remove(member.name);
+            city.joined = null;
+        }
+        if (city.members.isEmpty()) {
+            cities.remove(member.city);
+        } else {
+            citiesInOrder.put(city.members.first(), city);
+        }
+        member.city = null;
+    }
+
+    private Member memberOf(User user) {
+        Member member = members.get(user);
+        if (member == null) {
+            throw new IllegalArgumentException("User is not in the view");
+        }
+        return member;
+    }
+
+    private static String cityOf(User user) {
+        Address address = user.getAddress();
+        return address == null ? null : address.getCity();
+    }
+}
@@ -7,6 +7,7 @@ import static java.util.stream.Collectors.*;
 public class CleverStreamsAndLambdas {
 
     private static final Logger logger = Logger.getLogger(CleverStreamsAndLambdas.class.getName());
+    private static final NameCache NAMES = new NameCache(10_000, n -> n.trim().toUpperCase());
 
     static Map<String, String> badStreamUsage(List<User> users) {
         // Problems:
@@ -18,7 +19,7 @@ public class CleverStreamsAndLambdas {
         return users.stream()
                 .filter(u -> u.getOrders().stream().anyMatch(o -> o.getTotal() > 100))
                 .collect(groupingBy(u -> u.getAddress().getCity(),
-                        mapping(u -> u.getName().trim().toUpperCase(), toCollection(TreeSet::new))))
+                        mapping(u -> NAMES.normalize(u.getName()), toCollection(TreeSet::new))))
                 .entrySet().stream().limit(5)
                 .collect(toMap(Map.Entry::getKey, e -> String.join(",", e.getValue())));
     }
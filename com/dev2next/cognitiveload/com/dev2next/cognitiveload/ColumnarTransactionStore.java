@@ -0,0 +1,234 @@
+package com.dev2next.cognitiveload;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Struct-of-arrays copy of accounts, transactions and approvals.
+ *
+ * <p>
+ * Each field lives in its own primitive array: amounts in a {@code double[]},
+ * currencies as dictionary codes in a {@code short[]}, types as ordinals in a
+ * {@code byte[]} and dates as epoch millis in a {@code long[]}, with
+ * {@link Long#MIN_VALUE} for a missing date. Approvals of
+ * transaction {@code i} are the rows {@code approvalStart[i]} up to
+ * {@code approvalStart[i + 1]} of the approval columns, and likewise for the
+ * transactions of an account. This removes the per-row objects, {@code Date}s
+ * and lists, and lets the filter run over contiguous arrays.
+ * </p>
+ *
+ * <p>
+ * {@link #findApprovedTransfers(String, TransactionType, ResultSink)} works in
+ * two passes. The first evaluates the transaction predicates for every row in
+ * a branch-free loop over the primitive columns, which the JIT can unroll and
+ * vectorize, and compacts the surviving row numbers. The second checks the
+ * approvals of the few surviving rows only. Rows are stored in account order,
+ * so the matches come out in the same order as the object-based scan.
+ * </p>
+ *
+ * <p>
+ * Rows are appended with the {@code add...} methods, always to the last
+ * account and last transaction. Not thread-safe while being built.
+ * </p>
+ */
+final class ColumnarTransactionStore {
+
+    private static final byte NO_TYPE = -1;
+    private static final short NO_CURRENCY = -1;
+    private static final long NO_DATE = Long.MIN_VALUE;
+
+    // Accounts
+    private String[] accountIds = new String[16];
+    private boolean[] accountActive = new boolean[16];
+    private int accountCount;
+
+    // Transactions
+    private String[] txnIds = new String[16];
+    private int[] txnAccount = new int[16];
+    private double[] amounts = new double[16];
+    private short[] currencies = new short[16];
+    private byte[] types = new byte[16];
+    private long[] dates = new long[16];
+    private int[] approvalStart = new int[17];
+    private int txnCount;
+
+    // Approvals
+    private String[] managerIds = new String[16];
+    private boolean[] managerApproved = new boolean[16];
+    private long[] approvalDates = new long[16];
+    private int approvalCount;
+
+    private final Map<String, Short> currencyCodes = new HashMap<>();
+    private final List<String> currencyNames = new ArrayList<>();
+
+    /**
+     * Copies {@code accounts} into columns. Null accounts, transactions and
+     * approvals are dropped, as the scans would skip them anyway.
+     */
+    static ColumnarTransactionStore from(List<Account> accounts) {
+        ColumnarTransactionStore store = new ColumnarTransactionStore();
+        for (Account account : accounts) {
+            if (account == null) {
+                continue;
+            }
+            store.addAccount(account.getId(), account.isActive());
+            for (Transaction txn : account.getTransactions()) {
+                if (txn == null) {
+                    continue;
+                }
+                store.addTransaction(txn.getId(), txn.getAmount(), txn.getCurrency(), txn.getType(),
+                        millisOf(txn.getDate()));
+                for (Approval approval : txn.getApprovals()) {
+                    if (approval != null) {
+                        store.addApproval(approval.getManagerId(), approval.isManagerApproved(),
+                                millisOf(approval.getDate()));
+                    }
+                }
+            }
+        }
+        return store;
+    }
+
+    private static long millisOf(Date date) {
+        return date == null ? NO_DATE : date.getTime();
+    }
+
+    void addAccount(String id, boolean active) {
+        if (accountCount == accountIds.length) {
+            accountIds = Arrays.copyOf(accountIds, accountCount * 2);
+            accountActive = Arrays.copyOf(accountActive, accountCount * 2);
+        }
+        accountIds[accountCount] = id;
+        accountActive[accountCount] = active;
+        accountCount++;
+    }
+
+    /**
+     * Appends a transaction to the last added account.
+     */
+    void addTransaction(String id, double amount, String currency, TransactionType type, long epochMillis) {
+        if (accountCount == 0) {
+            throw new IllegalStateException("Add an account first");
+        }
+        if (txnCount == txnIds.length) {
+            int capacity = txnCount * 2;
+            txnIds = Arrays.copyOf(txnIds, capacity);
+            txnAccount = Arrays.copyOf(txnAccount, capacity);
+            amounts = Arrays.copyOf(amounts, capacity);
+            currencies = Arrays.copyOf(currencies, capacity);
+            types = Arrays.copyOf(types, capacity);
+            dates = Arrays.copyOf(dates, capacity);
+            approvalStart = Arrays.copyOf(approvalStart, capacity + 1);
+        }
+        txnIds[txnCount] = id;
+        txnAccount[txnCount] = accountCount - 1;
+        amounts[txnCount] = amount;
+        currencies[txnCount] = currencyCode(currency, true);
+        types[txnCount] = type == null ? NO_TYPE : (byte) type.ordinal();
+        dates[txnCount] = epochMillis;
+        txnCount++;
+        approvalStart[txnCount] = approvalCount;
+    }
+
+    /**
+     * Appends an approval to the last added transaction.
+     */
+    void addApproval(String managerId, boolean approved, long epochMillis) {
+        if (txnCount == 0) {
+            throw new IllegalStateException("Add a transaction first");
+        }
+        if (approvalCount == managerIds.length) {
+            int capacity = approvalCount * 2;
+            managerIds = Arrays.copyOf(managerIds, capacity);
+            managerApproved = Arrays.copyOf(managerApproved, capacity);
+            approvalDates = Arrays.copyOf(approvalDates, capacity);
+        }
+        managerIds[approvalCount] = managerId;
+        managerApproved[approvalCount] = approved;
+        approvalDates[approvalCount] = epochMillis;
+        approvalCount++;
+        approvalStart[txnCount] = approvalCount;
+    }
+
+    int transactionCount() {
+        return txnCount;
+    }
+
+    List<ApprovedTransfer> findApprovedUsdTransfers() {
+        List<ApprovedTransfer> matches = new ArrayList<>();
+        findApprovedTransfers("USD", TransactionType.TRANSFER, (accountId, transactionId, managerId)
+                -> matches.add(new ApprovedTransfer(accountId, transactionId, managerId)));
+        return matches;
+    }
+
+    /**
+     * Emits, in account order, every manager approval dated after its
+     * transaction, for positive transactions of {@code currency} and
+     * {@code type} on active accounts. An approval or transaction without a
+     * date never matches.
+     */
+    void findApprovedTransfers(String currency, TransactionType type, ResultSink sink) {
+        short currencyCode = currencyCode(currency, false);
+        if (currencyCode == NO_CURRENCY || type == null) {
+            return;
+        }
+        int[] candidates = selectCandidates(currencyCode, (byte) type.ordinal());
+        for (int c = 0; c < candidates.length; c++) {
+            int txn = candidates[c];
+            long txnDate = dates[txn];
+            if (txnDate == NO_DATE) {
+                continue;
+            }
+            // NO_DATE approvals are never after txnDate.
+            for (int a = approvalStart[txn]; a < approvalStart[txn + 1]; a++) {
+                if (managerApproved[a] && approvalDates[a] > txnDate) {
+                    sink.write(accountIds[txnAccount[txn]], txnIds[txn], managerIds[a]);
+                }
+            }
+        }
+    }
+
+    /**
+     * First pass: the row numbers of every transaction that passes the
+     * account, amount, currency and type checks. The loop body has no
+     * data-dependent branches; each row is written unconditionally and the
+     * output cursor only advances for survivors.
+     */
+    private int[] selectCandidates(short currencyCode, byte typeOrdinal) {
+        int[] selected = new int[txnCount + 1];
+        int count = 0;
+        for (int i = 0; i < txnCount; i++) {
+            boolean keep = (amounts[i] > 0)
+                    & (currencies[i] == currencyCode)
+                    & (types[i] == typeOrdinal)
+                    & accountActive[txnAccount[i]];
+            selected[count] = i;
+            count += keep ? 1 : 0;
+        }
+        return Arrays.copyOf(selected, count);
+    }
+
+    private short currencyCode(String currency, boolean create) {
+        if (currency == null) {
+            return NO_CURRENCY;
+        }
+        Short code = currencyCodes.get(currency);
+        if (code != null) {
+            return code;
+        }
+        if (!create) {
+            return NO_CURRENCY;
+        }
+        if (currencyNames.size() == Short.MAX_VALUE) {
+            throw new IllegalStateException("Too many distinct currencies");
+        }
+        short created = (short) currencyNames.size();
+        currencyCodes.put(currency, created);
+        currencyNames.add(currency);
+        return created;
+    }
+}
@@ -0,0 +1,155 @@
+package com.dev2next.cognitiveload;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Lock-free {@link Ledger} with one {@link AtomicLong} balance per account.
+ *
+ * <p>
+ * The account cells live in a {@link ConcurrentHashMap}, so looking up or
+ * creating an account never takes a global lock, and updates to different
+ * accounts never contend with each other. A withdrawal checks the balance and
+ * debits it in a single compare-and-set loop, so two threads can never both
+ * spend the same funds.
+ * </p>
+ */
+class ConcurrentLedger implements Ledger {
+
+    private static final Logger LOGGER = Logger.getLogger(ConcurrentLedger.class.getName());
+
+    private final ConcurrentHashMap<String, AtomicLong> accounts = new ConcurrentHashMap<>();
+
+    @Override
+    public void deposit(String name, long amount) {
+        cell(name).addAndGet(amount);
+    }
+
+    @Override
+    public boolean withdraw(String name, long amount) {
+        // Only a non-positive withdrawal can succeed on a missing account.
+        AtomicLong balance = amount <= 0 ? cell(name) : accounts.get(name);
+        if (balance == null) {
+            return false;
+        }
+        while (true) {
+            long current = balance.get();
+            if (current < amount) {
+                return false;
+            }
+            if (balance.compareAndSet(current, current - amount)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Applies the whole group with one compare-and-set: the operations are
+     * replayed against a read of the balance, and the group is retried from
+     * scratch if another thread changed the account in the meantime.
+     */
+    @Override
+    public void applyAll(String name, List<LedgerOperation> operations, boolean[] applied) {
+        AtomicLong balance = accounts.get(name);
+        if (balance == null) {
+            Ledger.simulate(0, operations, applied);
+            if (!Ledger.anyApplied(applied, operations.size())) {
+                return;
+            }
+            balance = cell(name);
+        }
+        while (true) {
+            long current = balance.get();
+            long updated = Ledger.simulate(current, operations, applied);
+            if (balance.compareAndSet(current, updated)) {
+                return;
+            }
+        }
+    }
+
+    @Override
+    public long balance(String name) {
+        AtomicLong balance = accounts.get(name);
+        return balance == null ? 0 : balance.get();
+    }
+
+    @Override
+    public Map<String, Long> snapshot() {
+        Map<String, Long> copy = new HashMap<>();
+        accounts.forEach((name, balance) -> copy.put(name, balance.get()));
+        return copy;
+    }
+
+    @Override
+    public String toString() {
+        return snapshot().toString();
+    }
+
+    private AtomicLong cell(String name) {
+        return accounts.computeIfAbsent(name, k -> new AtomicLong());
+    }
+
+    /**
+     * Hammers a handful of accounts from several threads and checks that no
+     * deposit or withdrawal was lost: every account must end up at exactly
+     * {@code deposits - withdrawals}, and the shared account must never go
+     * negative.
+     */
+    public static void main(String[] args) throws InterruptedException {
+        int threads = Math.max(4, Runtime.getRuntime().availableProcessors());
+        int opsPerThread = 1_000_000;
+        ConcurrentLedger ledger = new ConcurrentLedger();
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(threads);
+        AtomicInteger sharedWithdrawals = new AtomicInteger();
+
+        for (int t = 0; t < threads; t++) {
+            String own = "account-" + t;
+            new Thread(() -> {
+                try {
+                    start.await();
+                    for (int i = 0; i < opsPerThread; i++) {
+                        ledger.deposit(own, 2);
+                        ledger.withdraw(own, 1);
+                        ledger.deposit("shared", 1);
+                        if (ledger.withdraw("shared", 1)) {
+                            sharedWithdrawals.incrementAndGet();
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    done.countDown();
+                }
+            }).start();
+        }
+
+        long begin = System.nanoTime();
+        start.countDown();
+        done.await();
+        long elapsed = System.nanoTime() - begin;
+
+        long totalOps = 4L * threads * opsPerThread;
+        LOGGER.log(java.util.logging.Level.INFO, "{0} threads, {1} ops in {2} ms ({3} ops/s)",
+                new Object[]{threads, totalOps, elapsed / 1_000_000, totalOps * 1_000_000_000L / elapsed});
+
+        for (int t = 0; t < threads; t++) {
+            long balance = ledger.balance("account-" + t);
+            if (balance != opsPerThread) {
+                throw new IllegalStateException("Lost update on account-" + t + ": " + balance);
+            }
+        }
+        long expectedShared = threads * opsPerThread - sharedWithdrawals.get();
+        if (ledger.balance("shared") != expectedShared) {
+            throw new IllegalStateException("Lost update on shared: " + ledger.balance("shared")
+                    + " != " + expectedShared);
+        }
+        LOGGER.info("No lost updates");
+    }
+}
@@ -0,0 +1,169 @@
+package com.dev2next.cognitiveload;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Immutable, pre-parsed view of a properties file.
+ *
+ * <p>
+ * Every value is parsed once, when the snapshot is built, into each type it
+ * can represent. Lookups are then plain reads from unmodifiable maps: no
+ * locking, unlike {@link Properties}, and no repeated parsing by callers.
+ * </p>
+ *
+ * <p>
+ * Strings are returned exactly as {@link Properties#getProperty(String)}
+ * would. The typed parsers ignore surrounding whitespace. Durations accept
+ * ISO-8601 ({@code PT5S}) or a number with one of the suffixes {@code ms},
+ * {@code s}, {@code m}, {@code h} or {@code d}; values too large for a
+ * {@code Duration} in milliseconds are not durations.
+ * </p>
+ */
+final class ConfigSnapshot {
+
+    static final ConfigSnapshot EMPTY = new ConfigSnapshot(new Properties());
+
+    private final Map<String, String> strings;
+    private final Map<String, Long> longs;
+    private final Map<String, Boolean> booleans;
+    private final Map<String, Duration> durations;
+
+    ConfigSnapshot(Properties properties) {
+        Map<String, String> parsedStrings = new HashMap<>();
+        Map<String, Long> parsedLongs = new HashMap<>();
+        Map<String, Boolean> parsedBooleans = new HashMap<>();
+        Map<String, Duration> parsedDurations = new HashMap<>();
+        for (String key : properties.stringPropertyNames()) {
+            String raw = properties.getProperty(key);
+            parsedStrings.put(key, raw);
+            String value = raw.trim();
+            Long number = parseLong(value);
+            if (number != null) {
+                parsedLongs.put(key, number);
+            }
+            if ("true".equalsIgnoreCase(value) || "false".equalsIgnoreCase(value)) {
+                parsedBooleans.put(key, Boolean.parseBoolean(value));
+            }
+            Duration duration = parseDuration(value);
+            if (duration != null) {
+                parsedDurations.put(key, duration);
+            }
+        }
+        this.strings = Collections.unmodifiableMap(parsedStrings);
+        this.longs = Collections.unmodifiableMap(parsedLongs);
+        this.booleans = Collections.unmodifiableMap(parsedBooleans);
+        this.durations = Collections.unmodifiableMap(parsedDurations);
+    }
+
+    static ConfigSnapshot load(Path file) throws IOException {
+        Properties properties = new Properties();
+        try (InputStream in = Files.newInputStream(file)) {
+            properties.load(in);
+        }
+        return new ConfigSnapshot(properties);
+    }
+
+    /**
+     * @return the raw value, or {@code null} if the key is missing
+     */
+    String getString(String key) {
+        return strings.get(key);
+    }
+
+    /**
+     * @return the keys of {@code required} that this snapshot lacks, in
+     * iteration order
+     */
+    List<String> missingKeys(Collection<String> required) {
+        List<String> missing = new ArrayList<>();
+        for (String key : required) {
+            if (!strings.containsKey(key)) {
+                missing.add(key);
+            }
+        }
+        return missing;
+    }
+
+    /**
+     * @return the value as an {@code int}, or {@code defaultValue} if it is
+     * missing, not a number or out of range
+     */
+    int getInt(String key, int defaultValue) {
+        Long value = longs.get(key);
+        return value == null || value != value.intValue() ? defaultValue : value.intValue();
+    }
+
+    long getLong(String key, long defaultValue) {
+        Long value = longs.get(key);
+        return value == null ? defaultValue : value;
+    }
+
+    boolean getBoolean(String key, boolean defaultValue) {
+        Boolean value = booleans.get(key);
+        return value == null ? defaultValue : value;
+    }
+
+    Duration getDuration(String key, Duration defaultValue) {
+        Duration value = durations.get(key);
+        return value == null ? defaultValue : value;
+    }
+
+    private static Long parseLong(String value) {
+        try {
+            return Long.valueOf(value);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static Duration parseDuration(String value) {
+        if (value.startsWith("P") || value.startsWith("p")) {
+            try {
+                return Duration.parse(value);
+            } catch (DateTimeParseException e) {
+                return null;
+            }
+        }
+        String lower = value.toLowerCase();
+        if (lower.endsWith("ms")) {
+            return ofUnit(lower, 2, 1);
+        }
+        if (lower.endsWith("s")) {
+            return ofUnit(lower, 1, 1_000);
+        }
+        if (lower.endsWith("m")) {
+            return ofUnit(lower, 1, 60_000);
+        }
+        if (lower.endsWith("h")) {
+            return ofUnit(lower, 1, 3_600_000);
+        }
+        if (lower.endsWith("d")) {
+            return ofUnit(lower, 1, 86_400_000);
+        }
+        return null;
+    }
+
+    private static Duration ofUnit(String value, int suffixLength, long millisPerUnit) {
+        Long amount = parseLong(value.substring(0, value.length() - suffixLength).trim());
+        if (amount == null) {
+            return null;
+        }
+        try {
+            return Duration.ofMillis(Math.multiplyExact(amount, millisPerUnit));
+        } catch (ArithmeticException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package com.dev2next.cognitiveload;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Reloads a properties file into a new {@link ConfigSnapshot} whenever it
+ * changes on disk, on a background thread.
+ *
+ * <p>
+ * Each successfully parsed snapshot is handed to the listener, which
+ * typically publishes it through a {@code volatile} field so readers switch
+ * to it atomically. A file that fails to load, or lacks one of the required
+ * keys, is logged and the previous snapshot stays in effect.
+ * </p>
+ *
+ * <p>
+ * A properties file that is cut short still loads, so writers should replace
+ * the file with an atomic rename rather than rewrite it in place. As a second
+ * line of defence, the watcher waits until the file has been quiet for
+ * {@value #QUIET_MILLIS} ms before reading it, and the required keys catch a
+ * file that was read half-written anyway.
+ * </p>
+ */
+class ConfigWatcher implements AutoCloseable {
+
+    private static final Logger LOGGER = Logger.getLogger(ConfigWatcher.class.getName());
+
+    static final long QUIET_MILLIS = 100;
+
+    private final Path file;
+    private final Set<String> requiredKeys;
+    private final Consumer<ConfigSnapshot> listener;
+    private final WatchService watchService;
+    private final Thread thread;
+
+    ConfigWatcher(Path file, Consumer<ConfigSnapshot> listener) throws IOException {
+        this(file, Collections.<String>emptySet(), listener);
+    }
+
+    /**
+     * @param requiredKeys keys every reloaded snapshot must contain
+     */
+    ConfigWatcher(Path file, Collection<String> requiredKeys, Consumer<ConfigSnapshot> listener) throws IOException {
+        this.file = file.toAbsolutePath();
+        this.requiredKeys = Collections.unmodifiableSet(new LinkedHashSet<>(requiredKeys));
+        this.listener = listener;
+        this.watchService = FileSystems.getDefault().newWatchService();
+        this.file.getParent().register(watchService,
+                StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        this.thread = new Thread(this::watch, "config-watcher");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    @Override
+    public void close() throws IOException {
+        watchService.close();
+    }
+
+    private void watch() {
+        try {
+            while (true) {
+                if (!changed(watchService.take())) {
+                    continue;
+                }
+                // Let the writer finish: wait until no event arrives for a
+                // quiet period.
+                WatchKey next;
+                while ((next = watchService.poll(QUIET_MILLIS, TimeUnit.MILLISECONDS)) != null) {
+                    changed(next);
+                }
+                reload();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ClosedWatchServiceException e) {
+            // Closed: stop watching.
+        }
+    }
+
+    private boolean changed(WatchKey key) {
+        boolean changed = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            Object context = event.context();
+            if (context instanceof Path && file.getFileName().equals(context)) {
+                changed = true;
+            }
+        }
+        key.reset();
+        return changed;
+    }
+
+    private void reload() {
+        try {
+            ConfigSnapshot snapshot = ConfigSnapshot.load(file);
+            List<String> missing = snapshot.missingKeys(requiredKeys);
+            if (!missing.isEmpty()) {
+                LOGGER.log(Level.WARNING, "Ignoring {0}: missing required keys {1}, keeping previous configuration",
+                        new Object[]{file, missing});
+                return;
+            }
+            listener.accept(snapshot);
+            LOGGER.log(Level.INFO, "Reloaded configuration from {0}", file);
+        } catch (IOException | IllegalArgumentException e) {
+            LOGGER.log(Level.WARNING, "Failed to reload " + file + ", keeping previous configuration", e);
+        }
+    }
+}
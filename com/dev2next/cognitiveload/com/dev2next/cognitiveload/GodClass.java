@@ -21,42 +21,302 @@
 package com.dev2next.cognitiveload;
 
 import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.text.MessageFormat;
+import java.time.Duration;
 import java.util.*;
 import java.util.logging.Logger;
 
-public class GodClass {
+public class GodClass implements AutoCloseable {
 
     // Data storage
-    private final List<String> users = new ArrayList<>();
-    private final Map<String, Integer> accounts = new HashMap<>();
-    private final List<String> logs = new ArrayList<>();
+    private final UserRegistry users = new UserRegistry();
+    private final Ledger accounts;
+    private final List<String> logs = Collections.synchronizedList(new ArrayList<>());
+    private final MappedJournal journal;
+    private final AsyncLogPipeline logPipeline;
+    private LedgerCheckpointer checkpointer;
+    private final LedgerMetrics metrics = new LedgerMetrics();
 
     private static final Logger LOGGER = Logger.getLogger(GodClass.class.getName());
+    private static final int USER_PAGE_SIZE = 100;
+
+    /**
+     * How account balances are stored.
+     */
+    public enum LedgerMode {
+        /**
+         * The original single-threaded {@code HashMap<String, Long>}.
+         */
+        HASH_MAP,
+        /**
+         * A lock-free {@link ConcurrentLedger}, so {@code deposit} and
+         * {@code withdraw} can be called from many threads at once.
+         */
+        CONCURRENT,
+        /**
+         * A single-threaded {@link PrimitiveLedger} that neither boxes nor
+         * allocates per operation.
+         */
+        PRIMITIVE;
+
+        Ledger create() {
+            switch (this) {
+                case CONCURRENT:
+                    return new ConcurrentLedger();
+                case PRIMITIVE:
+                    return new PrimitiveLedger();
+                default:
+                    return new HashMapLedger();
+            }
+        }
+    }
+
+    public GodClass() {
+        this(LedgerMode.HASH_MAP);
+    }
+
+    public GodClass(LedgerMode ledgerMode) {
+        this(ledgerMode, null);
+    }
+
+    /**
+     * @param ledgerMode how balances are stored
+     * @param journal if not {@code null}, log messages are appended to this
+     * memory-mapped journal instead of being kept in memory
+     */
+    public GodClass(LedgerMode ledgerMode, MappedJournal journal) {
+        this(ledgerMode, journal, null);
+    }
+
+    /**
+     * @param ledgerMode how balances are stored
+     * @param journal see {@link #GodClass(LedgerMode, MappedJournal)}
+     * @param asyncLogging if not {@code null}, log messages are formatted and
+     * written in batches by a background {@link AsyncLogPipeline} that applies
+     * this policy when its buffer is full; {@link #close()} must then be called
+     * to drain it
+     */
+    public GodClass(LedgerMode ledgerMode, MappedJournal journal, AsyncLogPipeline.OverflowPolicy asyncLogging) {
+        this.accounts = ledgerMode.create();
+        this.journal = journal;
+        this.logPipeline = asyncLogging == null ? null
+                : new AsyncLogPipeline(8192, 256, asyncLogging, 16, this::recordAll);
+    }
+
+    /**
+     * Creates a {@code GodClass} whose users and balances are persisted in
+     * {@code directory}. Any earlier snapshot there is loaded with a single
+     * mapped read and only the operations journaled after it are replayed.
+     *
+     * @param checkpointIntervalMillis how often a background snapshot is
+     * written
+     */
+    public static GodClass restore(Path directory, LedgerMode ledgerMode, long checkpointIntervalMillis) throws IOException {
+        GodClass godClass = new GodClass(ledgerMode);
+        godClass.checkpointer = new LedgerCheckpointer(directory, godClass.accounts, godClass.users, checkpointIntervalMillis);
+        return godClass;
+    }
 
     // Business logic
+    /**
+     * Registers a user. Names are unique; adding an existing user is logged
+     * and otherwise ignored.
+     */
     public void addUser(String name) {
-        users.add(name);
-        log("Added user: " + name);
+        long start = System.nanoTime();
+        if (storeUser(name)) {
+            log("Added user: {0}", name);
+        } else {
+            log("User already exists: {0}", name);
+        }
+        metrics.record(LedgerMetrics.Operation.ADD_USER, null, System.nanoTime() - start);
     }
 
-    public void deposit(String name, int amount) {
-        accounts.put(name, accounts.getOrDefault(name, 0) + amount);
-        log("Deposited " + amount + " to " + name);
+    public boolean hasUser(String name) {
+        return users.contains(name);
+    }
+
+    /**
+     * Returns up to {@code limit} user names starting with {@code prefix}, in
+     * ascending order.
+     */
+    public List<String> findUsers(String prefix, int limit) {
+        return users.withPrefix(prefix, limit);
+    }
+
+    public void deposit(String name, long amount) {
+        long start = System.nanoTime();
+        if (checkpointer != null) {
+            try {
+                checkpointer.deposit(name, amount);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        } else {
+            accounts.deposit(name, amount);
+        }
+        log("Deposited {0,number,#} to {1}", amount, name);
+        metrics.record(LedgerMetrics.Operation.DEPOSIT, name, System.nanoTime() - start);
     }
 
-    public void withdraw(String name, int amount) {
-        int balance = accounts.getOrDefault(name, 0);
-        if (balance >= amount) {
-            accounts.put(name, balance - amount);
-            log("Withdrew " + amount + " from " + name);
+    public void withdraw(String name, long amount) {
+        long start = System.nanoTime();
+        if (applyWithdraw(name, amount)) {
+            log("Withdrew {0,number,#} from {1}", amount, name);
         } else {
-            log("Insufficient funds for " + name);
+            metrics.recordRejectedWithdrawal();
+            log("Insufficient funds for {0}", name);
+        }
+        metrics.record(LedgerMetrics.Operation.WITHDRAW, name, System.nanoTime() - start);
+    }
+
+    private boolean applyWithdraw(String name, long amount) {
+        if (checkpointer == null) {
+            return accounts.withdraw(name, amount);
+        }
+        try {
+            return checkpointer.withdraw(name, amount);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Applies a burst of operations at once. User additions are applied in
+     * order; deposits and withdrawals are grouped by account and each group is
+     * applied with a single ledger lookup, in the order the operations appear
+     * in {@code operations}. Operations on different accounts may be applied
+     * in a different relative order. One aggregated log record is written for
+     * the whole batch.
+     *
+     * @return the outcome of each operation, in the order of
+     * {@code operations}
+     */
+    public List<LedgerOperation.Result> applyBatch(List<LedgerOperation> operations) {
+        Map<String, List<Integer>> indexesByAccount = new LinkedHashMap<>();
+        LedgerOperation.Result[] results = new LedgerOperation.Result[operations.size()];
+        int usersAdded = 0;
+        for (int i = 0; i < operations.size(); i++) {
+            LedgerOperation operation = operations.get(i);
+            if (operation.getType() == LedgerOperation.Type.ADD_USER) {
+                long start = System.nanoTime();
+                if (storeUser(operation.getName())) {
+                    results[i] = LedgerOperation.Result.APPLIED;
+                    usersAdded++;
+                } else {
+                    results[i] = LedgerOperation.Result.DUPLICATE_USER;
+                }
+                metrics.record(LedgerMetrics.Operation.ADD_USER, null, System.nanoTime() - start);
+            } else {
+                indexesByAccount.computeIfAbsent(operation.getName(), k -> new ArrayList<>()).add(i);
+            }
+        }
+
+        long deposited = 0;
+        long withdrawn = 0;
+        int rejected = 0;
+        List<LedgerOperation> group = new ArrayList<>();
+        boolean[] applied = new boolean[0];
+        for (Map.Entry<String, List<Integer>> account : indexesByAccount.entrySet()) {
+            group.clear();
+            for (int index : account.getValue()) {
+                group.add(operations.get(index));
+            }
+            if (applied.length < group.size()) {
+                applied = new boolean[group.size()];
+            }
+            long start = System.nanoTime();
+            applyGroup(account.getKey(), group, applied);
+            // Each operation is charged an equal share of its group's time.
+            long perOperation = (System.nanoTime() - start) / group.size();
+            for (int g = 0; g < group.size(); g++) {
+                LedgerOperation operation = group.get(g);
+                int index = account.getValue().get(g);
+                metrics.record(operation.getType() == LedgerOperation.Type.WITHDRAW
+                        ? LedgerMetrics.Operation.WITHDRAW : LedgerMetrics.Operation.DEPOSIT,
+                        account.getKey(), perOperation);
+                if (!applied[g]) {
+                    metrics.recordRejectedWithdrawal();
+                    results[index] = LedgerOperation.Result.INSUFFICIENT_FUNDS;
+                    rejected++;
+                    continue;
+                }
+                results[index] = LedgerOperation.Result.APPLIED;
+                if (operation.getType() == LedgerOperation.Type.WITHDRAW) {
+                    withdrawn += operation.getAmount();
+                } else {
+                    deposited += operation.getAmount();
+                }
+            }
+        }
+
+        log("Applied batch of {0,number,#} operations on {1,number,#} accounts: {2,number,#} users added, "
+                + "{3,number,#} deposited, {4,number,#} withdrawn, {5,number,#} rejected for insufficient funds",
+                operations.size(), indexesByAccount.size(), usersAdded, deposited, withdrawn, rejected);
+        return Arrays.asList(results);
+    }
+
+    private boolean storeUser(String name) {
+        if (checkpointer == null) {
+            return users.add(name);
+        }
+        try {
+            return checkpointer.addUser(name);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void applyGroup(String name, List<LedgerOperation> group, boolean[] applied) {
+        if (checkpointer == null) {
+            accounts.applyAll(name, group, applied);
+            return;
+        }
+        try {
+            checkpointer.applyAll(name, group, applied);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
         }
     }
 
+    /**
+     * Operation counts, rejections and latencies of this instance. Register
+     * it with {@link LedgerMetrics#registerMBean(String)} to expose it over
+     * JMX.
+     */
+    public LedgerMetrics getMetrics() {
+        return metrics;
+    }
+
     // UI logic
+    /**
+     * Logs every user, one page of {@link #USER_PAGE_SIZE} names per record,
+     * without formatting the whole registry at once.
+     */
     public void printUsers() {
-        LOGGER.log(java.util.logging.Level.INFO, "Users: {0}", users);
+        String last = null;
+        List<String> page;
+        while (!(page = printUsers(last, USER_PAGE_SIZE)).isEmpty()) {
+            last = page.get(page.size() - 1);
+        }
+    }
+
+    /**
+     * Logs one page of users in ascending order, starting right after
+     * {@code after} ({@code null} for the first page).
+     *
+     * @return the names that were printed; pass the last one to get the next
+     * page
+     */
+    public List<String> printUsers(String after, int pageSize) {
+        List<String> page = users.page(after, pageSize);
+        if (!page.isEmpty()) {
+            LOGGER.log(java.util.logging.Level.INFO, "Users: {0}", page);
+        }
+        return page;
     }
 
     public void printAccounts() {
@@ -64,31 +324,156 @@ public class GodClass {
     }
 
     // Logging
-    private void log(String message) {
-        logs.add(message);
+    private void log(String pattern, Object... args) {
+        if (logPipeline != null) {
+            logPipeline.publish(pattern, args);
+        } else {
+            record(MessageFormat.format(pattern, args));
+        }
+    }
+
+    private void record(String message) {
+        if (journal != null) {
+            try {
+                journal.append(message.getBytes(StandardCharsets.UTF_8));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        } else {
+            logs.add(message);
+        }
         LOGGER.log(java.util.logging.Level.INFO, "LOG: {0}", message);
     }
 
+    /**
+     * Records a batch from the asynchronous pipeline with a single journal
+     * record and a single log call. The journal record holds the messages
+     * separated by newlines, so an export reads the same as one record per
+     * message.
+     */
+    private void recordAll(List<String> batch) throws IOException {
+        String messages = String.join("\n", batch);
+        if (journal != null) {
+            journal.append(messages.getBytes(StandardCharsets.UTF_8));
+        } else {
+            logs.addAll(batch);
+        }
+        LOGGER.log(java.util.logging.Level.INFO, "LOG: {0}", String.join("\nLOG: ", batch));
+    }
+
     // File I/O
     public void saveLogsToFile(String filename) throws IOException {
+        long start = System.nanoTime();
+        try {
+            writeLogs(filename);
+        } finally {
+            metrics.record(LedgerMetrics.Operation.SAVE_LOGS, null, System.nanoTime() - start);
+        }
+    }
+
+    private void writeLogs(String filename) throws IOException {
+        flushLogs();
+        if (journal != null) {
+            // The journal already holds every message; make it durable and
+            // copy its bytes out without decoding them. Saving to the same
+            // file again only appends what was logged since.
+            journal.sync();
+            journal.exportTo(Paths.get(filename), (byte) '\n');
+            return;
+        }
         try (BufferedWriter writer = new BufferedWriter(new FileWriter(filename))) {
-            for (String log : logs) {
-                writer.write(log);
-                writer.newLine();
+            synchronized (logs) {
+                for (String log : logs) {
+                    writer.write(log);
+                    writer.newLine();
+                }
+            }
+        }
+    }
+
+    private void flushLogs() throws InterruptedIOException {
+        // A closed pipeline has already written everything it accepted.
+        if (logPipeline == null || logPipeline.isClosed()) {
+            return;
+        }
+        try {
+            logPipeline.flush();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while flushing logs");
+        }
+    }
+
+    /**
+     * Drains and stops the asynchronous log pipeline, writes a final
+     * checkpoint and stops watching the configuration file, for whichever of
+     * them are enabled.
+     */
+    @Override
+    public void close() throws IOException {
+        if (logPipeline != null) {
+            logPipeline.close();
+        }
+        if (checkpointer != null) {
+            checkpointer.close();
+        }
+        synchronized (this) {
+            if (configWatcher != null) {
+                configWatcher.close();
             }
         }
     }
 
     // Configuration
-    private final Properties config = new Properties();
+    private volatile ConfigSnapshot config = ConfigSnapshot.EMPTY;
+    private ConfigWatcher configWatcher;
 
+    /**
+     * Replaces the current configuration with the contents of
+     * {@code filename}.
+     */
     public void loadConfig(String filename) throws IOException {
-        try (FileInputStream fis = new FileInputStream(filename)) {
-            config.load(fis);
+        config = ConfigSnapshot.load(Paths.get(filename));
+    }
+
+    /**
+     * Loads {@code filename} and keeps reloading it in the background whenever
+     * it changes. Readers see either the old or the new configuration, never a
+     * mix of both. A reload lacking any of {@code requiredKeys} is ignored;
+     * replace the file with an atomic rename so it is never read half-written.
+     *
+     * @throws IOException if the file cannot be loaded or lacks a required key
+     */
+    public synchronized void watchConfig(String filename, String... requiredKeys) throws IOException {
+        ConfigSnapshot snapshot = ConfigSnapshot.load(Paths.get(filename));
+        List<String> missing = snapshot.missingKeys(Arrays.asList(requiredKeys));
+        if (!missing.isEmpty()) {
+            throw new IOException("Missing required configuration keys in " + filename + ": " + missing);
+        }
+        config = snapshot;
+        if (configWatcher != null) {
+            configWatcher.close();
         }
+        configWatcher = new ConfigWatcher(Paths.get(filename), Arrays.asList(requiredKeys), s -> config = s);
     }
 
     public String getConfig(String key) {
-        return config.getProperty(key);
+        return config.getString(key);
+    }
+
+    public int getConfigInt(String key, int defaultValue) {
+        return config.getInt(key, defaultValue);
+    }
+
+    public long getConfigLong(String key, long defaultValue) {
+        return config.getLong(key, defaultValue);
+    }
+
+    public boolean getConfigBoolean(String key, boolean defaultValue) {
+        return config.getBoolean(key, defaultValue);
+    }
+
+    public Duration getConfigDuration(String key, Duration defaultValue) {
+        return config.getDuration(key, defaultValue);
     }
 }
@@ -0,0 +1,53 @@
+package com.dev2next.cognitiveload;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The original {@link GodClass} balance storage: a plain {@link HashMap} with
+ * get-then-put updates. Not thread-safe.
+ */
+class HashMapLedger implements Ledger {
+
+    private final Map<String, Long> accounts = new HashMap<>();
+
+    @Override
+    public void deposit(String name, long amount) {
+        accounts.put(name, accounts.getOrDefault(name, 0L) + amount);
+    }
+
+    @Override
+    public boolean withdraw(String name, long amount) {
+        long balance = accounts.getOrDefault(name, 0L);
+        if (balance < amount) {
+            return false;
+        }
+        accounts.put(name, balance - amount);
+        return true;
+    }
+
+    @Override
+    public void applyAll(String name, List<LedgerOperation> operations, boolean[] applied) {
+        Long current = accounts.get(name);
+        long balance = Ledger.simulate(current == null ? 0 : current, operations, applied);
+        if (current != null || Ledger.anyApplied(applied, operations.size())) {
+            accounts.put(name, balance);
+        }
+    }
+
+    @Override
+    public long balance(String name) {
+        return accounts.getOrDefault(name, 0L);
+    }
+
+    @Override
+    public Map<String, Long> snapshot() {
+        return new HashMap<>(accounts);
+    }
+
+    @Override
+    public String toString() {
+        return accounts.toString();
+    }
+}
@@ -0,0 +1,96 @@
+package com.dev2next.cognitiveload;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Storage for account balances used by {@link GodClass}.
+ *
+ * <p>
+ * Pulling the balances out behind this small interface lets {@code GodClass}
+ * switch between the original single-threaded {@code HashMap} storage, a
+ * concurrent one and a primitive one without touching its business methods.
+ * Balances are {@code long}s, since {@code int} overflows at production
+ * volumes.
+ * </p>
+ */
+interface Ledger {
+
+    /**
+     * Adds {@code amount} to the balance of {@code name}, creating the account
+     * if it does not exist yet.
+     */
+    void deposit(String name, long amount);
+
+    /**
+     * Debits {@code amount} from {@code name} if the balance covers it.
+     *
+     * @return {@code true} if the debit was applied, {@code false} on
+     * insufficient funds
+     */
+    boolean withdraw(String name, long amount);
+
+    /**
+     * Returns the current balance of {@code name}, or {@code 0} for an unknown
+     * account.
+     */
+    long balance(String name);
+
+    /**
+     * Applies the deposits and withdrawals in {@code operations}, all for the
+     * account {@code name}, in order, with the same semantics as calling
+     * {@link #deposit} and {@link #withdraw} one by one. Implementations look
+     * the account up once for the whole group.
+     *
+     * @param applied receives, per operation, whether it was applied
+     */
+    default void applyAll(String name, List<LedgerOperation> operations, boolean[] applied) {
+        for (int i = 0; i < operations.size(); i++) {
+            LedgerOperation operation = operations.get(i);
+            if (operation.getType() == LedgerOperation.Type.WITHDRAW) {
+                applied[i] = withdraw(name, operation.getAmount());
+            } else {
+                deposit(name, operation.getAmount());
+                applied[i] = true;
+            }
+        }
+    }
+
+    /**
+     * Replays {@code operations} against {@code balance}, filling
+     * {@code applied}, and returns the resulting balance.
+     */
+    static long simulate(long balance, List<LedgerOperation> operations, boolean[] applied) {
+        for (int i = 0; i < operations.size(); i++) {
+            LedgerOperation operation = operations.get(i);
+            if (operation.getType() != LedgerOperation.Type.WITHDRAW) {
+                balance += operation.getAmount();
+                applied[i] = true;
+            } else if (balance >= operation.getAmount()) {
+                balance -= operation.getAmount();
+                applied[i] = true;
+            } else {
+                applied[i] = false;
+            }
+        }
+        return balance;
+    }
+
+    /**
+     * Returns whether any entry of {@code applied} is set for the first
+     * {@code count} operations.
+     */
+    static boolean anyApplied(boolean[] applied, int count) {
+        for (int i = 0; i < count; i++) {
+            if (applied[i]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns a point-in-time copy of all balances, for display purposes.
+     */
+    Map<String, Long> snapshot();
+}
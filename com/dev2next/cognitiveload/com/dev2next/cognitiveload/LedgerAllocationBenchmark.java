@@ -0,0 +1,102 @@
+package com.dev2next.cognitiveload;
+
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+
+/**
+ * Compares throughput and allocation of the {@link HashMapLedger} against the
+ * {@link PrimitiveLedger}, by name and by pre-resolved handle.
+ *
+ * <p>
+ * Allocation is read from the HotSpot per-thread allocation counter, so the
+ * numbers are only reported on JVMs that expose
+ * {@code com.sun.management.ThreadMXBean}. Each variant is warmed up first
+ * and the account names are created up front, so only the ledger itself is
+ * measured.
+ * </p>
+ */
+public class LedgerAllocationBenchmark {
+
+    private static final Logger LOGGER = Logger.getLogger(LedgerAllocationBenchmark.class.getName());
+
+    private static final int ACCOUNTS = 100_000;
+    private static final int OPERATIONS = 20_000_000;
+
+    public static void main(String[] args) {
+        String[] names = new String[ACCOUNTS];
+        for (int i = 0; i < ACCOUNTS; i++) {
+            names[i] = "account-" + i;
+        }
+        int[] picks = new int[OPERATIONS];
+        Random random = new Random(42);
+        for (int i = 0; i < OPERATIONS; i++) {
+            picks[i] = random.nextInt(ACCOUNTS);
+        }
+
+        run("HashMapLedger", HashMapLedger::new, names, picks);
+        run("PrimitiveLedger", PrimitiveLedger::new, names, picks);
+        runByHandle(names, picks);
+    }
+
+    private static void run(String label, Supplier<Ledger> factory, String[] names, int[] picks) {
+        byNames(factory.get(), names, picks);
+        Ledger ledger = factory.get();
+        long bytesBefore = allocatedBytes();
+        long start = System.nanoTime();
+        byNames(ledger, names, picks);
+        report(label, System.nanoTime() - start, allocatedBytes() - bytesBefore);
+    }
+
+    private static void runByHandle(String[] names, int[] picks) {
+        byHandles(new PrimitiveLedger(), names, picks);
+        PrimitiveLedger ledger = new PrimitiveLedger();
+        long bytesBefore = allocatedBytes();
+        long start = System.nanoTime();
+        byHandles(ledger, names, picks);
+        report("PrimitiveLedger (handles)", System.nanoTime() - start, allocatedBytes() - bytesBefore);
+    }
+
+    private static void byNames(Ledger ledger, String[] names, int[] picks) {
+        for (int i = 0; i < picks.length; i++) {
+            String name = names[picks[i]];
+            if ((i & 1) == 0) {
+                ledger.deposit(name, 100);
+            } else {
+                ledger.withdraw(name, 60);
+            }
+        }
+    }
+
+    private static void byHandles(PrimitiveLedger ledger, String[] names, int[] picks) {
+        int[] handles = new int[names.length];
+        for (int i = 0; i < names.length; i++) {
+            handles[i] = ledger.handle(names[i]);
+        }
+        for (int i = 0; i < picks.length; i++) {
+            int handle = handles[picks[i]];
+            if ((i & 1) == 0) {
+                ledger.depositByHandle(handle, 100);
+            } else {
+                ledger.withdrawByHandle(handle, 60);
+            }
+        }
+    }
+
+    private static void report(String label, long elapsedNanos, long allocated) {
+        LOGGER.log(java.util.logging.Level.INFO, "{0}: {1} ops/s, {2} bytes allocated ({3} bytes/op)",
+                new Object[]{label,
+                    OPERATIONS * 1_000_000_000L / elapsedNanos,
+                    allocated < 0 ? "n/a" : allocated,
+                    allocated < 0 ? "n/a" : String.format("%.2f", (double) allocated / OPERATIONS)});
+    }
+
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,342 @@
+package com.dev2next.cognitiveload;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+
+/**
+ * Persists the users and balances of a {@link GodClass} as periodic binary
+ * snapshots plus an operation journal.
+ *
+ * <p>
+ * Every state change is applied and appended to a {@link MappedJournal} with a
+ * sequence number. A background checkpoint copies the state, writes it to
+ * {@value #SNAPSHOT_FILE} and then deletes the journal segments it covers, so
+ * a restart only maps the snapshot and replays the short journal tail written
+ * after it.
+ * </p>
+ *
+ * <p>
+ * Mutations hold the read side of a {@link ReadWriteLock}, so they still run
+ * concurrently with each other. The checkpoint takes the write side only for
+ * the in-memory copy, which guarantees the snapshot contains exactly the
+ * operations up to its sequence number. Checkpoints themselves are serialized
+ * by a separate lock, held from the copy until the covered segments are
+ * deleted, and are skipped while nothing has changed.
+ * </p>
+ *
+ * <p>
+ * Snapshot layout (big-endian):
+ * </p>
+ * <pre>
+ * int magic, int version, long lastSequence,
+ * int userCount,    userCount    x (short length, UTF-8 name),
+ * int accountCount, accountCount x (short length, UTF-8 name, long balance)
+ * </pre>
+ *
+ * <p>
+ * Journal records, in segments of format version {@value #JOURNAL_VERSION}:
+ * {@code long sequence, byte type, long amount, UTF-8 name}. Journals of
+ * other versions are refused on startup rather than replayed misaligned.
+ * </p>
+ */
+class LedgerCheckpointer implements AutoCloseable {
+
+    private static final Logger LOGGER = Logger.getLogger(LedgerCheckpointer.class.getName());
+
+    static final String SNAPSHOT_FILE = "ledger.snap";
+    private static final String JOURNAL_DIRECTORY = "ops";
+    private static final int MAGIC = 0x47435350; // "GCSP"
+    private static final int VERSION = 1;
+    private static final int JOURNAL_VERSION = 1;
+
+    private static final byte ADD_USER = 1;
+    private static final byte BALANCE_DELTA = 2;
+
+    private final Path directory;
+    private final Ledger ledger;
+    private final UserRegistry users;
+    private final MappedJournal journal;
+    private final AtomicLong sequence = new AtomicLong();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final ScheduledExecutorService scheduler;
+    private final Object checkpointLock = new Object();
+    private long lastCheckpointSequence;
+
+    /**
+     * Loads the snapshot and journal tail in {@code directory}, if any, into
+     * {@code users} and {@code ledger}, then starts checkpointing every
+     * {@code intervalMillis}.
+     */
+    LedgerCheckpointer(Path directory, Ledger ledger, UserRegistry users, long intervalMillis) throws IOException {
+        this.directory = Files.createDirectories(directory);
+        this.ledger = ledger;
+        this.users = users;
+        long snapshotSequence = loadSnapshot();
+        this.journal = new MappedJournal(directory.resolve(JOURNAL_DIRECTORY), MappedJournal.DEFAULT_SEGMENT_SIZE,
+                MappedJournal.FsyncPolicy.GROUP_COMMIT, 256, JOURNAL_VERSION);
+        sequence.set(snapshotSequence);
+        lastCheckpointSequence = snapshotSequence;
+        replayJournal(snapshotSequence);
+
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "ledger-checkpoint");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::checkpointQuietly, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return {@code false} if the user was already registered
+     */
+    boolean addUser(String name) throws IOException {
+        lock.readLock().lock();
+        try {
+            if (!users.add(name)) {
+                return false;
+            }
+            append(ADD_USER, name, 0);
+            return true;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    void deposit(String name, long amount) throws IOException {
+        lock.readLock().lock();
+        try {
+            ledger.deposit(name, amount);
+            append(BALANCE_DELTA, name, amount);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    boolean withdraw(String name, long amount) throws IOException {
+        lock.readLock().lock();
+        try {
+            if (!ledger.withdraw(name, amount)) {
+                return false;
+            }
+            // Journaled as a delta: deltas commute, so replay gives the same
+            // balances even if concurrent operations were journaled out of
+            // the order they were applied in.
+            append(BALANCE_DELTA, name, -amount);
+            return true;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Applies a group of operations on one account under a single lock
+     * acquisition and journals their net effect as one record.
+     */
+    void applyAll(String name, List<LedgerOperation> operations, boolean[] applied) throws IOException {
+        lock.readLock().lock();
+        try {
+            ledger.applyAll(name, operations, applied);
+            long delta = 0;
+            for (int i = 0; i < operations.size(); i++) {
+                if (applied[i]) {
+                    LedgerOperation operation = operations.get(i);
+                    delta += operation.getType() == LedgerOperation.Type.WITHDRAW
+                            ? -operation.getAmount() : operation.getAmount();
+                }
+            }
+            if (Ledger.anyApplied(applied, operations.size())) {
+                append(BALANCE_DELTA, name, delta);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Writes a snapshot of the current state and drops the journal segments it
+     * makes redundant.
+     */
+    void checkpoint() throws IOException {
+        synchronized (checkpointLock) {
+            long snapshotSequence;
+            List<String> usersCopy;
+            Map<String, Long> balances;
+            long firstLiveSegment;
+            lock.writeLock().lock();
+            try {
+                snapshotSequence = sequence.get();
+                if (snapshotSequence == lastCheckpointSequence) {
+                    return;
+                }
+                usersCopy = users.stream().collect(Collectors.toList());
+                balances = ledger.snapshot();
+                firstLiveSegment = journal.startNewSegment();
+            } finally {
+                lock.writeLock().unlock();
+            }
+            writeSnapshot(snapshotSequence, usersCopy, balances);
+            journal.deleteSegmentsBefore(firstLiveSegment);
+            lastCheckpointSequence = snapshotSequence;
+        }
+    }
+
+    /**
+     * Stops background checkpointing, waits for a running checkpoint to
+     * finish, takes a final checkpoint and closes the journal. An interrupt
+     * does not cut this short; the interrupt status is restored afterwards.
+     */
+    @Override
+    public void close() throws IOException {
+        scheduler.shutdown();
+        boolean interrupted = false;
+        while (!scheduler.isTerminated()) {
+            try {
+                scheduler.awaitTermination(1, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        try {
+            checkpoint();
+            journal.close();
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void checkpointQuietly() {
+        try {
+            checkpoint();
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Checkpoint failed, will retry", e);
+        }
+    }
+
+    private void append(byte type, String name, long amount) throws IOException {
+        byte[] encodedName = name.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer record = ByteBuffer.allocate(Long.BYTES + 1 + Long.BYTES + encodedName.length);
+        record.putLong(sequence.incrementAndGet()).put(type).putLong(amount).put(encodedName);
+        journal.append(record.array());
+    }
+
+    private void replayJournal(long snapshotSequence) throws IOException {
+        journal.forEach(record -> {
+            long recordSequence = record.getLong();
+            byte type = record.get();
+            long amount = record.getLong();
+            byte[] encodedName = new byte[record.remaining()];
+            record.get(encodedName);
+            if (recordSequence <= snapshotSequence) {
+                return;
+            }
+            String name = new String(encodedName, StandardCharsets.UTF_8);
+            if (type == ADD_USER) {
+                users.add(name);
+            } else {
+                ledger.deposit(name, amount);
+            }
+            if (recordSequence > sequence.get()) {
+                sequence.set(recordSequence);
+            }
+        });
+    }
+
+    private long loadSnapshot() throws IOException {
+        Path file = directory.resolve(SNAPSHOT_FILE);
+        if (!Files.exists(file)) {
+            return 0;
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Snapshot too large for a single mapping: " + channel.size() + " bytes");
+            }
+            MappedByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (in.getInt() != MAGIC || in.getInt() != VERSION) {
+                throw new IOException("Not a ledger snapshot: " + file);
+            }
+            long snapshotSequence = in.getLong();
+            byte[] scratch = new byte[Short.MAX_VALUE * 2 + 1];
+            for (int i = in.getInt(); i > 0; i--) {
+                users.add(readName(in, scratch));
+            }
+            for (int i = in.getInt(); i > 0; i--) {
+                String name = readName(in, scratch);
+                ledger.deposit(name, in.getLong());
+            }
+            return snapshotSequence;
+        }
+    }
+
+    private void writeSnapshot(long snapshotSequence, List<String> usersCopy, Map<String, Long> balances) throws IOException {
+        Path target = directory.resolve(SNAPSHOT_FILE);
+        Path temp = directory.resolve(SNAPSHOT_FILE + ".tmp");
+        try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.allocate(1024 * 1024);
+            buffer.putInt(MAGIC).putInt(VERSION).putLong(snapshotSequence).putInt(usersCopy.size());
+            for (String user : usersCopy) {
+                writeName(out, buffer, user, 0);
+            }
+            if (buffer.remaining() < Integer.BYTES) {
+                drain(out, buffer);
+            }
+            buffer.putInt(balances.size());
+            for (Map.Entry<String, Long> entry : balances.entrySet()) {
+                writeName(out, buffer, entry.getKey(), Long.BYTES);
+                buffer.putLong(entry.getValue());
+            }
+            drain(out, buffer);
+            out.force(true);
+        }
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Writes a length-prefixed name, first draining the buffer if the name and
+     * {@code trailer} more bytes would not fit.
+     */
+    private static void writeName(FileChannel out, ByteBuffer buffer, String name, int trailer) throws IOException {
+        byte[] encoded = name.getBytes(StandardCharsets.UTF_8);
+        if (encoded.length > Short.MAX_VALUE * 2 + 1) {
+            throw new IOException("Name too long for snapshot: " + encoded.length + " bytes");
+        }
+        if (buffer.remaining() < Short.BYTES + encoded.length + trailer) {
+            drain(out, buffer);
+        }
+        buffer.putShort((short) encoded.length).put(encoded);
+    }
+
+    private static String readName(ByteBuffer in, byte[] scratch) {
+        int length = Short.toUnsignedInt(in.getShort());
+        in.get(scratch, 0, length);
+        return new String(scratch, 0, length, StandardCharsets.UTF_8);
+    }
+
+    private static void drain(FileChannel out, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+        buffer.clear();
+    }
+}
@@ -0,0 +1,321 @@
+package com.dev2next.cognitiveload;
+
+import java.lang.management.ManagementFactory;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Operation counters and latency histograms for {@link GodClass}.
+ *
+ * <p>
+ * Everything is recorded into {@link LongAdder}s, which stripe their cells
+ * across threads, so recording never takes a lock and concurrent callers
+ * rarely touch the same cache line. Reads add up the stripes and are
+ * therefore only approximately consistent with each other, which is fine for
+ * monitoring.
+ * </p>
+ *
+ * <p>
+ * Per-account activity is sampled (one operation in
+ * {@value #ACCOUNT_SAMPLE_RATE}) into a table capped at
+ * {@value #MAX_TRACKED_ACCOUNTS} accounts, so hot accounts can be found
+ * without keeping a counter for every account.
+ * </p>
+ */
+public class LedgerMetrics implements LedgerMetricsMBean {
+
+    public enum Operation {
+        DEPOSIT,
+        WITHDRAW,
+        ADD_USER,
+        SAVE_LOGS
+    }
+
+    static final int ACCOUNT_SAMPLE_RATE = 16;
+    static final int MAX_TRACKED_ACCOUNTS = 100_000;
+    private static final int HOT_ACCOUNTS = 10;
+
+    private final Map<Operation, LongAdder> counts = new EnumMap<>(Operation.class);
+    private final Map<Operation, LatencyHistogram> latencies = new EnumMap<>(Operation.class);
+    private final LongAdder rejectedWithdrawals = new LongAdder();
+    private final ConcurrentHashMap<String, LongAdder> accountActivity = new ConcurrentHashMap<>();
+
+    public LedgerMetrics() {
+        for (Operation operation : Operation.values()) {
+            counts.put(operation, new LongAdder());
+            latencies.put(operation, new LatencyHistogram());
+        }
+    }
+
+    /**
+     * Records one completed operation.
+     *
+     * @param account the account touched, or {@code null} if none
+     */
+    void record(Operation operation, String account, long elapsedNanos) {
+        counts.get(operation).increment();
+        latencies.get(operation).record(elapsedNanos);
+        if (account != null && ThreadLocalRandom.current().nextInt(ACCOUNT_SAMPLE_RATE) == 0) {
+            LongAdder activity = accountActivity.get(account);
+            if (activity == null && accountActivity.size() < MAX_TRACKED_ACCOUNTS) {
+                activity = accountActivity.computeIfAbsent(account, k -> new LongAdder());
+            }
+            if (activity != null) {
+                activity.increment();
+            }
+        }
+    }
+
+    void recordRejectedWithdrawal() {
+        rejectedWithdrawals.increment();
+    }
+
+    /**
+     * Registers this instance with the platform MBean server.
+     *
+     * @param name for example
+     * {@code com.dev2next.cognitiveload:type=LedgerMetrics}
+     */
+    public void registerMBean(String name) throws JMException {
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(name));
+    }
+
+    /**
+     * Returns a copy of every counter and percentile, for programmatic use.
+     */
+    public Snapshot snapshot() {
+        Map<Operation, Long> countCopy = new EnumMap<>(Operation.class);
+        Map<Operation, long[]> percentiles = new EnumMap<>(Operation.class);
+        for (Operation operation : Operation.values()) {
+            countCopy.put(operation, counts.get(operation).sum());
+            LatencyHistogram histogram = latencies.get(operation);
+            percentiles.put(operation, new long[]{
+                histogram.percentile(0.50), histogram.percentile(0.99), histogram.max()});
+        }
+        return new Snapshot(countCopy, rejectedWithdrawals.sum(), percentiles, hotAccounts(HOT_ACCOUNTS));
+    }
+
+    @Override
+    public void reset() {
+        counts.values().forEach(LongAdder::reset);
+        latencies.values().forEach(LatencyHistogram::reset);
+        rejectedWithdrawals.reset();
+        accountActivity.clear();
+    }
+
+    @Override
+    public long getDepositCount() {
+        return counts.get(Operation.DEPOSIT).sum();
+    }
+
+    @Override
+    public long getWithdrawCount() {
+        return counts.get(Operation.WITHDRAW).sum();
+    }
+
+    @Override
+    public long getRejectedWithdrawCount() {
+        return rejectedWithdrawals.sum();
+    }
+
+    @Override
+    public double getWithdrawRejectionRate() {
+        long withdrawals = getWithdrawCount();
+        return withdrawals == 0 ? 0 : (double) getRejectedWithdrawCount() / withdrawals;
+    }
+
+    @Override
+    public long getAddUserCount() {
+        return counts.get(Operation.ADD_USER).sum();
+    }
+
+    @Override
+    public long getSaveLogsCount() {
+        return counts.get(Operation.SAVE_LOGS).sum();
+    }
+
+    @Override
+    public double getDepositP50Micros() {
+        return micros(latencies.get(Operation.DEPOSIT).percentile(0.50));
+    }
+
+    @Override
+    public double getDepositP99Micros() {
+        return micros(latencies.get(Operation.DEPOSIT).percentile(0.99));
+    }
+
+    @Override
+    public double getWithdrawP50Micros() {
+        return micros(latencies.get(Operation.WITHDRAW).percentile(0.50));
+    }
+
+    @Override
+    public double getWithdrawP99Micros() {
+        return micros(latencies.get(Operation.WITHDRAW).percentile(0.99));
+    }
+
+    @Override
+    public double getAddUserP99Micros() {
+        return micros(latencies.get(Operation.ADD_USER).percentile(0.99));
+    }
+
+    @Override
+    public double getSaveLogsP99Micros() {
+        return micros(latencies.get(Operation.SAVE_LOGS).percentile(0.99));
+    }
+
+    @Override
+    public double getSaveLogsMaxMicros() {
+        return micros(latencies.get(Operation.SAVE_LOGS).max());
+    }
+
+    @Override
+    public String[] getHotAccounts() {
+        Map<String, Long> hot = hotAccounts(HOT_ACCOUNTS);
+        List<String> formatted = new ArrayList<>(hot.size());
+        hot.forEach((account, activity) -> formatted.add(account + "=" + activity));
+        return formatted.toArray(new String[0]);
+    }
+
+    private Map<String, Long> hotAccounts(int limit) {
+        List<Map.Entry<String, Long>> sampled = new ArrayList<>();
+        accountActivity.forEach((account, activity) ->
+                sampled.add(new AbstractMap.SimpleEntry<>(account, activity.sum() * ACCOUNT_SAMPLE_RATE)));
+        sampled.sort(Map.Entry.<String, Long>comparingByValue().reversed());
+        Map<String, Long> hot = new LinkedHashMap<>();
+        for (Map.Entry<String, Long> entry : sampled.subList(0, Math.min(limit, sampled.size()))) {
+            hot.put(entry.getKey(), entry.getValue());
+        }
+        return hot;
+    }
+
+    private static double micros(long nanos) {
+        return nanos / 1_000.0;
+    }
+
+    /**
+     * Point-in-time copy of the metrics.
+     */
+    public static final class Snapshot {
+
+        private final Map<Operation, Long> counts;
+        private final long rejectedWithdrawals;
+        private final Map<Operation, long[]> percentiles;
+        private final Map<String, Long> hotAccounts;
+
+        Snapshot(Map<Operation, Long> counts, long rejectedWithdrawals,
+                Map<Operation, long[]> percentiles, Map<String, Long> hotAccounts) {
+            this.counts = Collections.unmodifiableMap(counts);
+            this.rejectedWithdrawals = rejectedWithdrawals;
+            this.percentiles = percentiles;
+            this.hotAccounts = Collections.unmodifiableMap(hotAccounts);
+        }
+
+        public long count(Operation operation) {
+            return counts.get(operation);
+        }
+
+        public long rejectedWithdrawals() {
+            return rejectedWithdrawals;
+        }
+
+        public long p50Nanos(Operation operation) {
+            return percentiles.get(operation)[0];
+        }
+
+        public long p99Nanos(Operation operation) {
+            return percentiles.get(operation)[1];
+        }
+
+        public long maxNanos(Operation operation) {
+            return percentiles.get(operation)[2];
+        }
+
+        /**
+         * Estimated operation counts of the most active accounts, most active
+         * first.
+         */
+        public Map<String, Long> hotAccounts() {
+            return hotAccounts;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder text = new StringBuilder();
+            for (Operation operation : Operation.values()) {
+                text.append(operation).append(": count=").append(count(operation))
+                        .append(", p50=").append(p50Nanos(operation)).append("ns")
+                        .append(", p99=").append(p99Nanos(operation)).append("ns")
+                        .append(", max=").append(maxNanos(operation)).append("ns\n");
+            }
+            return text.append("rejected withdrawals: ").append(rejectedWithdrawals)
+                    .append("\nhot accounts: ").append(hotAccounts).toString();
+        }
+    }
+
+    /**
+     * Lock-free histogram with one bucket per power of two nanoseconds.
+     * Percentiles are reported as the upper bound of their bucket, so they are
+     * accurate to within a factor of two.
+     */
+    static final class LatencyHistogram {
+
+        private final LongAdder[] buckets = new LongAdder[Long.SIZE + 1];
+        private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+        LatencyHistogram() {
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        void record(long nanos) {
+            long value = Math.max(0, nanos);
+            buckets[Long.SIZE - Long.numberOfLeadingZeros(value)].increment();
+            max.accumulate(value);
+        }
+
+        long percentile(double fraction) {
+            long[] counts = new long[buckets.length];
+            long total = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                counts[i] = buckets[i].sum();
+                total += counts[i];
+            }
+            if (total == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(fraction * total);
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return i == 0 ? 0 : Math.min(max(), (1L << i) - 1);
+                }
+            }
+            return max();
+        }
+
+        long max() {
+            return max.get();
+        }
+
+        void reset() {
+            for (LongAdder bucket : buckets) {
+                bucket.reset();
+            }
+            max.reset();
+        }
+    }
+}
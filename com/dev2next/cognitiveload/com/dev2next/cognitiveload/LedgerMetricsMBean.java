@@ -0,0 +1,42 @@
+package com.dev2next.cognitiveload;
+
+/**
+ * JMX view of {@link LedgerMetrics}. Latencies are in microseconds and are
+ * upper bounds of power-of-two histogram buckets.
+ */
+public interface LedgerMetricsMBean {
+
+    long getDepositCount();
+
+    long getWithdrawCount();
+
+    long getRejectedWithdrawCount();
+
+    double getWithdrawRejectionRate();
+
+    long getAddUserCount();
+
+    long getSaveLogsCount();
+
+    double getDepositP50Micros();
+
+    double getDepositP99Micros();
+
+    double getWithdrawP50Micros();
+
+    double getWithdrawP99Micros();
+
+    double getAddUserP99Micros();
+
+    double getSaveLogsP99Micros();
+
+    double getSaveLogsMaxMicros();
+
+    /**
+     * The most active accounts, formatted as {@code name=operations}, most
+     * active first.
+     */
+    String[] getHotAccounts();
+
+    void reset();
+}
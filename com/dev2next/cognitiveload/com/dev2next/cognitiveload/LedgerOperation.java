@@ -0,0 +1,62 @@
+package com.dev2next.cognitiveload;
+
+/**
+ * One entry of a {@link GodClass#applyBatch(java.util.List) batch}: add a
+ * user, deposit or withdraw.
+ */
+public final class LedgerOperation {
+
+    public enum Type {
+        ADD_USER,
+        DEPOSIT,
+        WITHDRAW
+    }
+
+    /**
+     * Outcome of one operation in a batch.
+     */
+    public enum Result {
+        APPLIED,
+        INSUFFICIENT_FUNDS,
+        DUPLICATE_USER
+    }
+
+    private final Type type;
+    private final String name;
+    private final long amount;
+
+    private LedgerOperation(Type type, String name, long amount) {
+        this.type = type;
+        this.name = name;
+        this.amount = amount;
+    }
+
+    public static LedgerOperation addUser(String name) {
+        return new LedgerOperation(Type.ADD_USER, name, 0);
+    }
+
+    public static LedgerOperation deposit(String name, long amount) {
+        return new LedgerOperation(Type.DEPOSIT, name, amount);
+    }
+
+    public static LedgerOperation withdraw(String name, long amount) {
+        return new LedgerOperation(Type.WITHDRAW, name, amount);
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getAmount() {
+        return amount;
+    }
+
+    @Override
+    public String toString() {
+        return type + "(" + name + (type == Type.ADD_USER ? "" : ", " + amount) + ")";
+    }
+}
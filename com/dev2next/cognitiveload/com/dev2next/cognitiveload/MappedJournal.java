@@ -0,0 +1,397 @@
+package com.dev2next.cognitiveload;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Segmented, memory-mapped, append-only journal of opaque byte records.
+ *
+ * <p>
+ * Records are written straight into a fixed-size mapped segment as
+ * {@code [int length][payload]}. When a record no longer fits, the segment is
+ * flushed and a new one is mapped, so memory use is bounded by one segment no
+ * matter how long the history gets. A zero length marks the end of the
+ * written data, which is how an existing journal is reopened after a restart.
+ * </p>
+ *
+ * <p>
+ * Each segment starts with {@code [int magic][int formatVersion]}, where the
+ * version describes the owner's record payloads. Opening a journal whose
+ * segments carry another version fails instead of misreading them.
+ * </p>
+ *
+ * <p>
+ * When records reach the disk is controlled by {@link FsyncPolicy}. Until a
+ * record is forced it is in the page cache: it survives a crash of the JVM but
+ * not of the machine.
+ * </p>
+ */
+class MappedJournal implements Closeable {
+
+    /**
+     * When appended records are forced to the storage device.
+     */
+    enum FsyncPolicy {
+        /**
+         * Force after every record. Safest and slowest.
+         */
+        EVERY_APPEND,
+        /**
+         * Force once per group of {@code groupCommitSize} records, and on
+         * {@link #sync()}, rollover and close.
+         */
+        GROUP_COMMIT,
+        /**
+         * Leave write-back to the operating system; force only on
+         * {@link #sync()}, rollover and close.
+         */
+        OS_MANAGED
+    }
+
+    static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    private static final String SEGMENT_PREFIX = "journal-";
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final int HEADER_SIZE = Integer.BYTES;
+    private static final int SEGMENT_MAGIC = 0x4D4A524E; // "MJRN"
+    private static final int SEGMENT_HEADER_SIZE = 2 * Integer.BYTES;
+    private static final int DEFAULT_FORMAT_VERSION = 1;
+    private static final int EMPTY = 0;
+
+    private final Path directory;
+    private final int segmentSize;
+    private final FsyncPolicy fsyncPolicy;
+    private final int groupCommitSize;
+    private final int formatVersion;
+
+    private long segmentIndex;
+    private FileChannel channel;
+    private MappedByteBuffer segment;
+    private int unsynced;
+    private ExportMark lastExport;
+
+    /**
+     * Where the previous {@link #exportTo(Path, byte)} stopped.
+     */
+    private static final class ExportMark {
+
+        final Path target;
+        final long segment;
+        final int offset;
+        final long size;
+
+        ExportMark(Path target, long segment, int offset, long size) {
+            this.target = target;
+            this.segment = segment;
+            this.offset = offset;
+            this.size = size;
+        }
+    }
+
+    MappedJournal(Path directory) throws IOException {
+        this(directory, DEFAULT_SEGMENT_SIZE, FsyncPolicy.GROUP_COMMIT, 256);
+    }
+
+    MappedJournal(Path directory, int segmentSize, FsyncPolicy fsyncPolicy, int groupCommitSize) throws IOException {
+        this(directory, segmentSize, fsyncPolicy, groupCommitSize, DEFAULT_FORMAT_VERSION);
+    }
+
+    /**
+     * @param formatVersion version of the record payloads, written to every
+     * new segment and required of every existing one; must be positive
+     * @throws IOException if an existing segment is not a journal segment or
+     * has another format version
+     */
+    MappedJournal(Path directory, int segmentSize, FsyncPolicy fsyncPolicy, int groupCommitSize, int formatVersion)
+            throws IOException {
+        if (segmentSize <= SEGMENT_HEADER_SIZE + HEADER_SIZE * 2) {
+            throw new IllegalArgumentException("Segment size too small: " + segmentSize);
+        }
+        if (groupCommitSize < 1) {
+            throw new IllegalArgumentException("Group commit size must be positive: " + groupCommitSize);
+        }
+        if (formatVersion < 1) {
+            throw new IllegalArgumentException("Format version must be positive: " + formatVersion);
+        }
+        this.directory = Files.createDirectories(directory);
+        this.segmentSize = segmentSize;
+        this.fsyncPolicy = fsyncPolicy;
+        this.groupCommitSize = groupCommitSize;
+        this.formatVersion = formatVersion;
+
+        List<Path> existing = segments();
+        for (Path path : existing) {
+            int version = versionOf(path);
+            if (version != EMPTY && version != formatVersion) {
+                throw new IOException("Journal segment " + path + " has format version " + version
+                        + ", expected " + formatVersion);
+            }
+        }
+        if (existing.isEmpty()) {
+            openSegment(0);
+        } else {
+            openSegment(indexOf(existing.get(existing.size() - 1)));
+            segment.position(endOfRecords(segment));
+        }
+    }
+
+    /**
+     * Appends one record.
+     *
+     * @throws IllegalArgumentException if the record can never fit in a
+     * segment
+     */
+    synchronized void append(byte[] payload) throws IOException {
+        int recordSize = HEADER_SIZE + payload.length;
+        // Always leave room for the segment header and the zero-length end
+        // marker.
+        if (SEGMENT_HEADER_SIZE + recordSize + HEADER_SIZE > segmentSize) {
+            throw new IllegalArgumentException("Record of " + payload.length + " bytes exceeds segment size");
+        }
+        if (payload.length == 0) {
+            throw new IllegalArgumentException("Empty records are not allowed");
+        }
+        if (segment.remaining() < recordSize + HEADER_SIZE) {
+            rollover();
+        }
+        // Payload first, length last: a record torn by a crash still reads
+        // as the end marker.
+        int start = segment.position();
+        segment.position(start + HEADER_SIZE);
+        segment.put(payload);
+        segment.putInt(start, payload.length);
+        afterAppend();
+    }
+
+    /**
+     * Forces every record appended so far to the storage device.
+     */
+    synchronized void sync() {
+        segment.force();
+        unsynced = 0;
+    }
+
+    /**
+     * Closes the current segment and starts a new one, even if the current one
+     * still has room.
+     *
+     * @return the index of the new segment; every record appended before this
+     * call lives in a segment with a lower index
+     */
+    synchronized long startNewSegment() throws IOException {
+        rollover();
+        return segmentIndex;
+    }
+
+    /**
+     * Deletes every segment whose index is below {@code index}, typically
+     * after their records have been captured by a checkpoint.
+     */
+    synchronized void deleteSegmentsBefore(long index) throws IOException {
+        for (Path path : segments()) {
+            if (indexOf(path) < Math.min(index, segmentIndex)) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    /**
+     * Streams every record, oldest first, to {@code consumer}. The buffer
+     * handed to the consumer is only valid during the call.
+     */
+    synchronized void forEach(Consumer<ByteBuffer> consumer) throws IOException {
+        forEachFrom(0, 0, consumer);
+    }
+
+    /**
+     * Writes every record to {@code target} followed by {@code separator},
+     * copying bytes between buffers without decoding them.
+     *
+     * <p>
+     * Exports are incremental: when {@code target} is the file of the previous
+     * export and still has the size that export left, only the records
+     * appended since are added to it. Otherwise the whole journal is written.
+     * </p>
+     */
+    synchronized void exportTo(Path target, byte separator) throws IOException {
+        Path absolute = target.toAbsolutePath();
+        boolean resume = lastExport != null && lastExport.target.equals(absolute)
+                && Files.isRegularFile(absolute) && Files.size(absolute) == lastExport.size;
+        long fromSegment = resume ? lastExport.segment : 0;
+        int fromOffset = resume ? lastExport.offset : 0;
+        lastExport = null;
+        try (FileChannel out = FileChannel.open(absolute, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            if (resume) {
+                out.position(out.size());
+            } else {
+                out.truncate(0);
+            }
+            ByteBuffer buffer = ByteBuffer.allocateDirect(64 * 1024);
+            forEachFrom(fromSegment, fromOffset, record -> {
+                try {
+                    if (buffer.remaining() < record.remaining() + 1) {
+                        drain(out, buffer);
+                    }
+                    if (buffer.remaining() < record.remaining() + 1) {
+                        // Record larger than the copy buffer: write it through.
+                        out.write(record);
+                        out.write(ByteBuffer.wrap(new byte[]{separator}));
+                    } else {
+                        buffer.put(record).put(separator);
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            drain(out, buffer);
+            lastExport = new ExportMark(absolute, segmentIndex, segment.position(), out.size());
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        segment.force();
+        channel.close();
+    }
+
+    /**
+     * Streams the records from {@code offset} in segment {@code fromSegment}
+     * on; segments deleted in the meantime are skipped.
+     */
+    private void forEachFrom(long fromSegment, int offset, Consumer<ByteBuffer> consumer) throws IOException {
+        for (Path path : segments()) {
+            long index = indexOf(path);
+            if (index < fromSegment) {
+                continue;
+            }
+            int start = index == fromSegment ? offset : 0;
+            if (index == segmentIndex) {
+                ByteBuffer tail = segment.duplicate();
+                tail.flip();
+                tail.position(Math.max(start, SEGMENT_HEADER_SIZE));
+                readRecords(tail, consumer);
+                continue;
+            }
+            try (FileChannel in = FileChannel.open(path, StandardOpenOption.READ)) {
+                ByteBuffer records = in.map(FileChannel.MapMode.READ_ONLY, 0, in.size());
+                records.position(Math.max(start, SEGMENT_HEADER_SIZE));
+                readRecords(records, consumer);
+            }
+        }
+    }
+
+    private void afterAppend() {
+        unsynced++;
+        if (fsyncPolicy == FsyncPolicy.EVERY_APPEND
+                || (fsyncPolicy == FsyncPolicy.GROUP_COMMIT && unsynced >= groupCommitSize)) {
+            sync();
+        }
+    }
+
+    private void rollover() throws IOException {
+        segment.force();
+        channel.close();
+        openSegment(segmentIndex + 1);
+        unsynced = 0;
+    }
+
+    private void openSegment(long index) throws IOException {
+        segmentIndex = index;
+        channel = FileChannel.open(directory.resolve(segmentName(index)),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        if (segment.getInt(0) == 0) {
+            segment.putInt(0, SEGMENT_MAGIC).putInt(Integer.BYTES, formatVersion);
+        }
+        segment.position(SEGMENT_HEADER_SIZE);
+    }
+
+    /**
+     * The format version from a segment's header, or {@link #EMPTY} if
+     * nothing was ever written to it.
+     *
+     * @throws IOException if the segment does not start with the magic
+     */
+    private static int versionOf(Path path) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(SEGMENT_HEADER_SIZE);
+        try (FileChannel in = FileChannel.open(path, StandardOpenOption.READ)) {
+            while (header.hasRemaining() && in.read(header) >= 0) {
+                // keep reading
+            }
+        }
+        header.flip();
+        if (header.remaining() < SEGMENT_HEADER_SIZE || header.getInt(0) == 0) {
+            return EMPTY;
+        }
+        if (header.getInt(0) != SEGMENT_MAGIC) {
+            throw new IOException("Not a journal segment: " + path);
+        }
+        return header.getInt(Integer.BYTES);
+    }
+
+    private List<Path> segments() throws IOException {
+        List<Path> result = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            stream.forEach(result::add);
+        }
+        // Zero-padded names sort in segment order.
+        Collections.sort(result);
+        return result;
+    }
+
+    private static void readRecords(ByteBuffer buffer, Consumer<ByteBuffer> consumer) {
+        while (buffer.remaining() >= HEADER_SIZE) {
+            int length = buffer.getInt();
+            if (length <= 0 || length > buffer.remaining()) {
+                return;
+            }
+            ByteBuffer record = buffer.slice();
+            record.limit(length);
+            consumer.accept(record);
+            buffer.position(buffer.position() + length);
+        }
+    }
+
+    private static int endOfRecords(ByteBuffer buffer) {
+        int position = SEGMENT_HEADER_SIZE;
+        while (position + HEADER_SIZE <= buffer.limit()) {
+            int length = buffer.getInt(position);
+            if (length <= 0 || position + HEADER_SIZE + length > buffer.limit()) {
+                break;
+            }
+            position += HEADER_SIZE + length;
+        }
+        return position;
+    }
+
+    private static void drain(FileChannel out, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    private static String segmentName(long index) {
+        return String.format("%s%020d%s", SEGMENT_PREFIX, index, SEGMENT_SUFFIX);
+    }
+
+    private static long indexOf(Path segment) {
+        String name = segment.getFileName().toString();
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+}
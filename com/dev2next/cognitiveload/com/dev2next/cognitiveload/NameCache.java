@@ -0,0 +1,124 @@
+package com.dev2next.cognitiveload;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Bounded, thread-safe cache of normalized names.
+ *
+ * <p>
+ * Real data sets repeat a small set of names many times. Normalizing each
+ * occurrence allocates new strings every time; with the cache, a repeated
+ * name costs one lookup and always maps to the same normalized instance, so
+ * the sets it ends up in share it too.
+ * </p>
+ *
+ * <p>
+ * The cache is split into stripes by hash, each an access-ordered
+ * {@link LinkedHashMap} with its own lock and its own share of the capacity,
+ * so threads only contend when they hit the same stripe, and each stripe
+ * evicts its least recently used name. Null names are never cached.
+ * </p>
+ */
+final class NameCache {
+
+    private static final int STRIPES = 16;
+
+    private final Function<String, String> normalizer;
+    private final Stripe[] stripes = new Stripe[STRIPES];
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * @param capacity the maximum number of names kept, across all stripes
+     * @param normalizer the normalization to cache; must be a pure function
+     */
+    NameCache(int capacity, Function<String, String> normalizer) {
+        if (capacity < STRIPES) {
+            throw new IllegalArgumentException("Capacity must be at least " + STRIPES + ": " + capacity);
+        }
+        this.normalizer = normalizer;
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe(capacity / STRIPES);
+        }
+    }
+
+    String normalize(String name) {
+        if (name == null) {
+            return normalizer.apply(null);
+        }
+        Stripe stripe = stripes[spread(name.hashCode()) & (STRIPES - 1)];
+        synchronized (stripe) {
+            String normalized = stripe.get(name);
+            if (normalized != null) {
+                hits.increment();
+                return normalized;
+            }
+        }
+        misses.increment();
+        String normalized = normalizer.apply(name);
+        synchronized (stripe) {
+            // Another thread may have won the race; keep its instance.
+            String existing = stripe.putIfAbsent(name, normalized);
+            return existing != null ? existing : normalized;
+        }
+    }
+
+    long hits() {
+        return hits.sum();
+    }
+
+    long misses() {
+        return misses.sum();
+    }
+
+    long evictions() {
+        return evictions.sum();
+    }
+
+    int size() {
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                size += stripe.size();
+            }
+        }
+        return size;
+    }
+
+    @Override
+    public String toString() {
+        long hitCount = hits();
+        long total = hitCount + misses();
+        return String.format("NameCache[size=%d, hits=%d, misses=%d, hitRate=%.2f%%, evictions=%d]",
+                size(), hitCount, misses(), total == 0 ? 0.0 : 100.0 * hitCount / total, evictions());
+    }
+
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    private final class Stripe extends LinkedHashMap<String, String> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int capacity;
+
+        Stripe(int capacity) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+            if (size() <= capacity) {
+                return false;
+            }
+            evictions.increment();
+            return true;
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package com.dev2next.cognitiveload;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@link Ledger} that stores balances as primitive {@code long}s, so a deposit
+ * or withdrawal on an existing account allocates nothing.
+ *
+ * <p>
+ * Account names are interned into dense integer <em>handles</em> through an
+ * open-addressing hash table with linear probing; balances live in a
+ * {@code long[]} indexed by handle. Callers on a hot path can resolve a
+ * handle once with {@link #handle(String)} and then use the
+ * {@code ...ByHandle} methods, which skip hashing the name altogether.
+ * </p>
+ *
+ * <p>
+ * Like {@link HashMapLedger}, this class is not thread-safe.
+ * </p>
+ */
+class PrimitiveLedger implements Ledger {
+
+    private static final int NO_HANDLE = -1;
+
+    // Open-addressing table: name and handle per slot, capacity a power of two.
+    private String[] slotNames;
+    private int[] slotHandles;
+    private int mask;
+
+    // Dense per-handle storage.
+    private String[] names;
+    private long[] balances;
+    private int size;
+
+    PrimitiveLedger() {
+        this(1024);
+    }
+
+    PrimitiveLedger(int expectedAccounts) {
+        int capacity = Integer.highestOneBit(Math.max(16, expectedAccounts * 2 - 1)) << 1;
+        slotNames = new String[capacity];
+        slotHandles = new int[capacity];
+        mask = capacity - 1;
+        names = new String[Math.max(16, expectedAccounts)];
+        balances = new long[names.length];
+    }
+
+    /**
+     * Returns the handle of {@code name}, creating an account with a zero
+     * balance if needed. Handles are stable for the lifetime of the ledger.
+     */
+    int handle(String name) {
+        int handle = find(name);
+        return handle != NO_HANDLE ? handle : insert(name);
+    }
+
+    void depositByHandle(int handle, long amount) {
+        balances[handle] += amount;
+    }
+
+    boolean withdrawByHandle(int handle, long amount) {
+        if (balances[handle] < amount) {
+            return false;
+        }
+        balances[handle] -= amount;
+        return true;
+    }
+
+    long balanceByHandle(int handle) {
+        return balances[handle];
+    }
+
+    @Override
+    public void deposit(String name, long amount) {
+        depositByHandle(handle(name), amount);
+    }
+
+    @Override
+    public boolean withdraw(String name, long amount) {
+        int handle = find(name);
+        if (handle == NO_HANDLE) {
+            // Same as the HashMap ledger: only a non-positive amount can be
+            // withdrawn from a missing account.
+            if (amount > 0) {
+                return false;
+            }
+            handle = insert(name);
+        }
+        return withdrawByHandle(handle, amount);
+    }
+
+    @Override
+    public void applyAll(String name, List<LedgerOperation> operations, boolean[] applied) {
+        int handle = find(name);
+        long balance = Ledger.simulate(handle == NO_HANDLE ? 0 : balances[handle], operations, applied);
+        if (handle == NO_HANDLE && Ledger.anyApplied(applied, operations.size())) {
+            handle = insert(name);
+        }
+        if (handle != NO_HANDLE) {
+            balances[handle] = balance;
+        }
+    }
+
+    @Override
+    public long balance(String name) {
+        int handle = find(name);
+        return handle == NO_HANDLE ? 0 : balances[handle];
+    }
+
+    @Override
+    public Map<String, Long> snapshot() {
+        Map<String, Long> copy = new HashMap<>(size * 2);
+        for (int handle = 0; handle < size; handle++) {
+            copy.put(names[handle], balances[handle]);
+        }
+        return copy;
+    }
+
+    @Override
+    public String toString() {
+        return snapshot().toString();
+    }
+
+    private int find(String name) {
+        for (int slot = slotOf(name);; slot = (slot + 1) & mask) {
+            String candidate = slotNames[slot];
+            if (candidate == null) {
+                return NO_HANDLE;
+            }
+            if (candidate.equals(name)) {
+                return slotHandles[slot];
+            }
+        }
+    }
+
+    private int insert(String name) {
+        if (size == names.length) {
+            names = Arrays.copyOf(names, size * 2);
+            balances = Arrays.copyOf(balances, size * 2);
+        }
+        // Keep the table at most half full so probe chains stay short.
+        if ((size + 1) * 2 > slotNames.length) {
+            rehash(slotNames.length * 2);
+        }
+        int handle = size++;
+        names[handle] = name;
+        place(name, handle);
+        return handle;
+    }
+
+    private void rehash(int capacity) {
+        String[] oldNames = slotNames;
+        int[] oldHandles = slotHandles;
+        slotNames = new String[capacity];
+        slotHandles = new int[capacity];
+        mask = capacity - 1;
+        for (int slot = 0; slot < oldNames.length; slot++) {
+            if (oldNames[slot] != null) {
+                place(oldNames[slot], oldHandles[slot]);
+            }
+        }
+    }
+
+    private void place(String name, int handle) {
+        int slot = slotOf(name);
+        while (slotNames[slot] != null) {
+            slot = (slot + 1) & mask;
+        }
+        slotNames[slot] = name;
+        slotHandles[slot] = handle;
+    }
+
+    private int slotOf(String name) {
+        int hash = name.hashCode();
+        // Spread the high bits, as HashMap does, before masking.
+        return (hash ^ (hash >>> 16)) & mask;
+    }
+}
@@ -0,0 +1,35 @@
+package com.dev2next.cognitiveload;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Destination for approved-transfer matches.
+ *
+ * <p>
+ * Processors hand each match over as its three ids, so no
+ * {@link ApprovedTransfer} has to be built just to be written out. Sinks may
+ * buffer; nothing is guaranteed to have reached its destination before
+ * {@link #flush()} or {@link #close()}. Write errors of buffering sinks surface
+ * as {@link java.io.UncheckedIOException}.
+ * </p>
+ *
+ * @see ResultSinks
+ */
+@FunctionalInterface
+interface ResultSink extends Closeable {
+
+    void write(String accountId, String transactionId, String managerId);
+
+    default void write(ApprovedTransfer match) {
+        write(match.getAccountId(), match.getTransactionId(), match.getManagerId());
+    }
+
+    default void flush() throws IOException {
+    }
+
+    @Override
+    default void close() throws IOException {
+        flush();
+    }
+}
@@ -0,0 +1,316 @@
+package com.dev2next.cognitiveload;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Factories for {@link ResultSink}s.
+ *
+ * <p>
+ * The file sinks encode each match straight into one reusable direct buffer,
+ * without building intermediate strings, and write the buffer to a
+ * {@link FileChannel} only when it is full, on {@link ResultSink#flush()} and
+ * on {@link ResultSink#close()}. Text is UTF-8. They are not thread-safe.
+ * </p>
+ *
+ * <p>
+ * The binary format is a sequence of records of three strings (account,
+ * transaction, manager), each {@code [short length][UTF-8]} with length -1
+ * for null, the same string encoding as {@link BinaryTransactionFile}.
+ * </p>
+ */
+final class ResultSinks {
+
+    static final int DEFAULT_BUFFER_SIZE = 256 * 1024;
+
+    private static final String CSV_HEADER = "accountId,transactionId,managerId\n";
+    private static final String CSV_NULL = "\\0";
+
+    private ResultSinks() {
+    }
+
+    /**
+     * Logs every match at {@code INFO}, in the format of the original report.
+     * Convenient for small runs; use a file sink for volume.
+     */
+    static ResultSink logging(Logger logger) {
+        return (accountId, transactionId, managerId) -> {
+            if (logger.isLoggable(Level.INFO)) {
+                logger.log(Level.INFO, "Account: {0}, Transaction: {1}, Approved by: {2}",
+                        new Object[]{accountId, transactionId, managerId});
+            }
+        };
+    }
+
+    /**
+     * CSV with a header line. Fields containing a comma, quote or line break
+     * are quoted. Null ids are written as an unquoted {@code \0}, like in the
+     * {@link TransactionSources} line format, so they differ from empty ids;
+     * an id that is literally {@code \0} is quoted.
+     */
+    static ResultSink csv(Path file) throws IOException {
+        return new CsvSink(openForWrite(file), DEFAULT_BUFFER_SIZE);
+    }
+
+    static ResultSink binary(Path file) throws IOException {
+        return new BinarySink(openForWrite(file), DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Reads back a file written by {@link #binary(Path)}.
+     */
+    static void readBinary(Path file, Consumer<ApprovedTransfer> consumer) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            while (buffer.hasRemaining()) {
+                consumer.accept(new ApprovedTransfer(readString(buffer), readString(buffer), readString(buffer)));
+            }
+        }
+    }
+
+    private static FileChannel openForWrite(Path file) throws IOException {
+        return FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getShort();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Buffering and UTF-8 encoding shared by the file sinks.
+     */
+    private abstract static class ChannelSink implements ResultSink {
+
+        private static final int MAX_BYTES_PER_CHAR = 4;
+
+        private final FileChannel channel;
+        private final ByteBuffer buffer;
+        private boolean closed;
+
+        ChannelSink(FileChannel channel, int bufferSize) {
+            this.channel = channel;
+            this.buffer = ByteBuffer.allocateDirect(bufferSize);
+        }
+
+        @Override
+        public final void write(String accountId, String transactionId, String managerId) {
+            if (closed) {
+                throw new IllegalStateException("Sink is closed");
+            }
+            try {
+                writeRecord(accountId, transactionId, managerId);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        abstract void writeRecord(String accountId, String transactionId, String managerId) throws IOException;
+
+        @Override
+        public final void flush() throws IOException {
+            drain();
+            channel.force(false);
+        }
+
+        @Override
+        public final void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                flush();
+            } finally {
+                channel.close();
+            }
+        }
+
+        final void putByte(int value) throws IOException {
+            ensure(1);
+            buffer.put((byte) value);
+        }
+
+        final void putShort(int value) throws IOException {
+            ensure(Short.BYTES);
+            buffer.putShort((short) value);
+        }
+
+        final void putAscii(String text) throws IOException {
+            for (int i = 0; i < text.length(); i++) {
+                putByte(text.charAt(i));
+            }
+        }
+
+        /**
+         * Encodes {@code text} as UTF-8, replacing unpaired surrogates with
+         * {@code '?'} like {@link String#getBytes}.
+         */
+        final void putUtf8(String text) throws IOException {
+            putUtf8(text, 0, text.length());
+        }
+
+        final void putUtf8(String text, int from, int to) throws IOException {
+            for (int i = from; i < to; i++) {
+                ensure(MAX_BYTES_PER_CHAR);
+                char c = text.charAt(i);
+                if (c < 0x80) {
+                    buffer.put((byte) c);
+                } else if (c < 0x800) {
+                    buffer.put((byte) (0xC0 | c >> 6));
+                    buffer.put((byte) (0x80 | c & 0x3F));
+                } else if (!Character.isSurrogate(c)) {
+                    buffer.put((byte) (0xE0 | c >> 12));
+                    buffer.put((byte) (0x80 | c >> 6 & 0x3F));
+                    buffer.put((byte) (0x80 | c & 0x3F));
+                } else if (Character.isHighSurrogate(c) && i + 1 < to
+                        && Character.isLowSurrogate(text.charAt(i + 1))) {
+                    int codePoint = Character.toCodePoint(c, text.charAt(++i));
+                    buffer.put((byte) (0xF0 | codePoint >> 18));
+                    buffer.put((byte) (0x80 | codePoint >> 12 & 0x3F));
+                    buffer.put((byte) (0x80 | codePoint >> 6 & 0x3F));
+                    buffer.put((byte) (0x80 | codePoint & 0x3F));
+                } else {
+                    buffer.put((byte) '?');
+                }
+            }
+        }
+
+        static int utf8Length(String text) {
+            int length = 0;
+            for (int i = 0; i < text.length(); i++) {
+                char c = text.charAt(i);
+                if (c < 0x80) {
+                    length += 1;
+                } else if (c < 0x800) {
+                    length += 2;
+                } else if (!Character.isSurrogate(c)) {
+                    length += 3;
+                } else if (Character.isHighSurrogate(c) && i + 1 < text.length()
+                        && Character.isLowSurrogate(text.charAt(i + 1))) {
+                    length += 4;
+                    i++;
+                } else {
+                    length += 1;
+                }
+            }
+            return length;
+        }
+
+        private void ensure(int bytes) throws IOException {
+            if (buffer.remaining() < bytes) {
+                drain();
+            }
+        }
+
+        private void drain() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+    }
+
+    private static final class CsvSink extends ChannelSink {
+
+        CsvSink(FileChannel channel, int bufferSize) throws IOException {
+            super(channel, bufferSize);
+            putAscii(CSV_HEADER);
+        }
+
+        @Override
+        void writeRecord(String accountId, String transactionId, String managerId) throws IOException {
+            putField(accountId);
+            putByte(',');
+            putField(transactionId);
+            putByte(',');
+            putField(managerId);
+            putByte('\n');
+        }
+
+        private void putField(String value) throws IOException {
+            if (value == null) {
+                putAscii(CSV_NULL);
+                return;
+            }
+            if (!needsQuoting(value)) {
+                putUtf8(value);
+                return;
+            }
+            putByte('"');
+            int start = 0;
+            for (int quote = value.indexOf('"'); quote >= 0; quote = value.indexOf('"', start)) {
+                putUtf8(value, start, quote + 1);
+                putByte('"');
+                start = quote + 1;
+            }
+            putUtf8(value, start, value.length());
+            putByte('"');
+        }
+
+        private static boolean needsQuoting(String value) {
+            if (value.equals(CSV_NULL)) {
+                return true;
+            }
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c == ',' || c == '"' || c == '\n' || c == '\r') {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private static final class BinarySink extends ChannelSink {
+
+        BinarySink(FileChannel channel, int bufferSize) {
+            super(channel, bufferSize);
+        }
+
+        @Override
+        void writeRecord(String accountId, String transactionId, String managerId) throws IOException {
+            // All lengths are checked before any byte is buffered, so a
+            // rejected record leaves no partial record behind.
+            int accountLength = encodedLength(accountId);
+            int transactionLength = encodedLength(transactionId);
+            int managerLength = encodedLength(managerId);
+            putString(accountId, accountLength);
+            putString(transactionId, transactionLength);
+            putString(managerId, managerLength);
+        }
+
+        private static int encodedLength(String value) {
+            if (value == null) {
+                return -1;
+            }
+            int length = utf8Length(value);
+            if (length > Short.MAX_VALUE) {
+                throw new IllegalArgumentException("Id longer than " + Short.MAX_VALUE + " bytes");
+            }
+            return length;
+        }
+
+        private void putString(String value, int length) throws IOException {
+            putShort(length);
+            if (value != null) {
+                putUtf8(value);
+            }
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package com.dev2next.cognitiveload;
+
+import java.util.function.BiPredicate;
+
+/**
+ * A named filter on an item of type {@code T}, evaluated in the context of
+ * its parent {@code C} (for example an approval in the context of its
+ * transaction).
+ *
+ * <p>
+ * The cost is a relative estimate of how expensive {@link #test} is; a
+ * {@link RuleChain} combines it with the measured pass rate to decide which
+ * rule to run first.
+ * </p>
+ */
+final class Rule<T, C> {
+
+    static final int CHEAP = 1;
+    static final int MODERATE = 2;
+    static final int EXPENSIVE = 4;
+
+    private final String name;
+    private final int cost;
+    private final BiPredicate<? super T, ? super C> predicate;
+
+    Rule(String name, int cost, BiPredicate<? super T, ? super C> predicate) {
+        if (cost < 1) {
+            throw new IllegalArgumentException("Cost must be positive: " + cost);
+        }
+        this.name = name;
+        this.cost = cost;
+        this.predicate = predicate;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    int getCost() {
+        return cost;
+    }
+
+    boolean test(T item, C context) {
+        return predicate.test(item, context);
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
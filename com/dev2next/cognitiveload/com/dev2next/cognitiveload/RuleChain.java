@@ -0,0 +1,123 @@
+package com.dev2next.cognitiveload;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiPredicate;
+
+/**
+ * Conjunction of {@link Rule}s that reorders itself by measured selectivity.
+ *
+ * <p>
+ * The rules are compiled into one fused, short-circuiting predicate. One call
+ * in {@value #SAMPLE_INTERVAL} is instead profiled: the rules run in the same
+ * order and still stop at the first failure, but each rule reached is counted.
+ * A rule's pass rate is thus measured among the items that passed the rules
+ * before it. After {@value #SAMPLES_PER_REORDER} profiled calls the rules are
+ * sorted by {@code cost / (1 - passRate)}, so cheap rules that reject most
+ * items run first, and the fused predicate is rebuilt.
+ * </p>
+ *
+ * <p>
+ * Since any rule may end up first, each rule must be safe to evaluate on any
+ * item by itself. A check that relies on a guard, such as reading a date only
+ * once an approval is known to be approved, belongs in the same rule as its
+ * guard.
+ * </p>
+ *
+ * <p>
+ * Not thread-safe: use one chain per scanning thread.
+ * </p>
+ */
+final class RuleChain<T, C> {
+
+    static final int SAMPLE_INTERVAL = 64;
+    static final int SAMPLES_PER_REORDER = 1024;
+
+    private final List<Rule<T, C>> rules;
+    private final long[] evaluated;
+    private final long[] passed;
+    private BiPredicate<T, C> fused;
+    private long calls;
+    private int samplesSinceReorder;
+
+    RuleChain(List<Rule<T, C>> rules) {
+        this.rules = new ArrayList<>(rules);
+        this.evaluated = new long[this.rules.size()];
+        this.passed = new long[this.rules.size()];
+        compile();
+    }
+
+    boolean test(T item, C context) {
+        if (++calls % SAMPLE_INTERVAL != 0) {
+            return fused.test(item, context);
+        }
+        boolean all = true;
+        for (int i = 0; i < rules.size() && all; i++) {
+            evaluated[i]++;
+            if (rules.get(i).test(item, context)) {
+                passed[i]++;
+            } else {
+                all = false;
+            }
+        }
+        if (++samplesSinceReorder == SAMPLES_PER_REORDER) {
+            samplesSinceReorder = 0;
+            reorder();
+        }
+        return all;
+    }
+
+    /**
+     * The rules in their current evaluation order.
+     */
+    List<Rule<T, C>> order() {
+        return Collections.unmodifiableList(new ArrayList<>(rules));
+    }
+
+    /**
+     * Measured pass rate of each rule, in evaluation order.
+     */
+    Map<String, Double> passRates() {
+        Map<String, Double> rates = new LinkedHashMap<>();
+        for (int i = 0; i < rules.size(); i++) {
+            rates.put(rules.get(i).getName(), evaluated[i] == 0 ? Double.NaN : (double) passed[i] / evaluated[i]);
+        }
+        return rates;
+    }
+
+    private void reorder() {
+        Integer[] positions = new Integer[rules.size()];
+        double[] ranks = new double[rules.size()];
+        for (int i = 0; i < rules.size(); i++) {
+            positions[i] = i;
+            // Laplace smoothing keeps a rule that never rejected from ranking
+            // at infinity forever.
+            double passRate = (passed[i] + 1.0) / (evaluated[i] + 2.0);
+            ranks[i] = rules.get(i).getCost() / (1.0 - passRate);
+        }
+        Arrays.sort(positions, Comparator.comparingDouble(i -> ranks[i]));
+
+        List<Rule<T, C>> sortedRules = new ArrayList<>(rules);
+        long[] sortedEvaluated = evaluated.clone();
+        long[] sortedPassed = passed.clone();
+        for (int i = 0; i < positions.length; i++) {
+            rules.set(i, sortedRules.get(positions[i]));
+            evaluated[i] = sortedEvaluated[positions[i]];
+            passed[i] = sortedPassed[positions[i]];
+        }
+        compile();
+    }
+
+    private void compile() {
+        BiPredicate<T, C> chain = (item, context) -> true;
+        for (Rule<T, C> rule : rules) {
+            chain = chain.and(rule::test);
+        }
+        fused = chain;
+    }
+}
@@ -0,0 +1,417 @@
+package com.dev2next.cognitiveload;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * City to sorted-names grouping that spills to disk under a memory budget.
+ *
+ * <p>
+ * Names are collected per city in {@link TreeSet}s, as in memory, while their
+ * estimated size stays within the budget. When it is exceeded, every city's
+ * set is written to a temporary run file, already sorted, and the sets are
+ * cleared. The result is produced by a k-way merge of each city's runs and
+ * its remaining in-memory names, dropping duplicates, which yields exactly the
+ * sorted distinct names the in-memory grouping would have held. At most
+ * {@link #MAX_FAN_IN} runs are read at once: a city with more is first merged
+ * in groups into intermediate runs, as many passes as needed.
+ * </p>
+ *
+ * <p>
+ * As in {@link CityNamesCollector}, only the first {@code maxCities} cities
+ * are kept, in the order they are first seen. {@link #result()} builds every
+ * joined string in memory; {@link #writeNames(String, Appendable)} streams a
+ * city's names instead, for results that do not fit. Not thread-safe. {@link #close()} deletes the
+ * run files.
+ * </p>
+ */
+final class SpillingCityNames implements Closeable {
+
+    /**
+     * Rough heap cost of one name in a {@code TreeSet}: the tree entry, the
+     * {@code String} and its array headers. Characters are added on top.
+     */
+    private static final int BYTES_PER_NAME = 96;
+
+    /**
+     * Most run segments open at once while merging, which bounds the file
+     * descriptors used.
+     */
+    static final int MAX_FAN_IN = 64;
+
+    /**
+     * Where one city's names are stored in one run file.
+     */
+    private static final class Segment {
+
+        final Path run;
+        final long offset;
+        final int count;
+
+        Segment(Path run, long offset, int count) {
+            this.run = run;
+            this.offset = offset;
+            this.count = count;
+        }
+    }
+
+    private static final class CityNames {
+
+        final TreeSet<String> inMemory = new TreeSet<>();
+        final List<Segment> spilled = new ArrayList<>();
+    }
+
+    private final int maxCities;
+    private final long memoryBudget;
+    private final Path tempDirectory;
+    private final Map<String, CityNames> cities = new LinkedHashMap<>();
+    private final List<Path> runs = new ArrayList<>();
+    private long estimatedBytes;
+
+    /**
+     * @param memoryBudget estimated bytes of names to hold before spilling
+     * @param tempDirectory where the run files go
+     */
+    SpillingCityNames(int maxCities, long memoryBudget, Path tempDirectory) {
+        if (maxCities < 0) {
+            throw new IllegalArgumentException("maxCities must not be negative: " + maxCities);
+        }
+        if (memoryBudget < BYTES_PER_NAME) {
+            throw new IllegalArgumentException("Memory budget too small: " + memoryBudget);
+        }
+        this.maxCities = maxCities;
+        this.memoryBudget = memoryBudget;
+        this.tempDirectory = tempDirectory;
+    }
+
+    /**
+     * Whether names of {@code city} are still collected: it is already known,
+     * or there is room for another city. Lets callers skip expensive checks.
+     */
+    boolean accepts(String city) {
+        return city != null && (cities.containsKey(city) || cities.size() < maxCities);
+    }
+
+    /**
+     * Adds an already selected and normalized name. Ignored for cities beyond
+     * the first {@code maxCities}.
+     *
+     * @throws UncheckedIOException if a spill fails
+     */
+    void add(String city, String name) {
+        if (!accepts(city)) {
+            return;
+        }
+        CityNames names = cities.computeIfAbsent(city, c -> new CityNames());
+        if (names.inMemory.add(name)) {
+            estimatedBytes += BYTES_PER_NAME + 2L * name.length();
+            if (estimatedBytes > memoryBudget) {
+                try {
+                    spill();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        }
+    }
+
+    int spillCount() {
+        return runs.size();
+    }
+
+    /**
+     * The cities kept, in first-seen order.
+     */
+    Set<String> cities() {
+        return Collections.unmodifiableSet(cities.keySet());
+    }
+
+    /**
+     * The cities in first-seen order with their sorted, comma-joined names;
+     * the same map {@link CityNamesCollector} produces. Unlike the grouping,
+     * this is not bounded by the memory budget: every joined string is held
+     * at once, and each is built whole, so a large city costs about twice its
+     * names in heap. Use {@link #writeNames(String, Appendable)} when that
+     * does not fit.
+     */
+    Map<String, String> result() throws IOException {
+        Map<String, String> result = new LinkedHashMap<>();
+        StringBuilder joined = new StringBuilder();
+        for (String city : cities.keySet()) {
+            joined.setLength(0);
+            writeNames(city, joined);
+            result.put(city, joined.toString());
+        }
+        return result;
+    }
+
+    /**
+     * Writes the sorted, comma-joined names of {@code city} to {@code out},
+     * merging its runs on the fly. Holds one name per run at a time, so it
+     * stays within the memory budget if {@code out} does.
+     */
+    void writeNames(String city, Appendable out) throws IOException {
+        CityNames names = cities.get(city);
+        if (names == null) {
+            return;
+        }
+        reduceRuns(names);
+        try (Merge merge = new Merge(names.spilled, names.inMemory.iterator())) {
+            boolean first = true;
+            while (merge.hasNext()) {
+                if (!first) {
+                    out.append(',');
+                }
+                out.append(merge.next());
+                first = false;
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        IOException failure = null;
+        for (Path run : runs) {
+            try {
+                Files.deleteIfExists(run);
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        runs.clear();
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Writes every city's in-memory names, in sorted order, to a new run file.
+     * Each city's names are one segment: {@code [int length][UTF-16 chars]...},
+     * so any name, even one with unpaired surrogates, reads back unchanged.
+     */
+    private void spill() throws IOException {
+        Path run = newRun();
+        try (FileChannel channel = FileChannel.open(run, StandardOpenOption.WRITE)) {
+            DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(Channels.newOutputStream(channel), 64 * 1024));
+            for (CityNames names : cities.values()) {
+                if (names.inMemory.isEmpty()) {
+                    continue;
+                }
+                out.flush();
+                names.spilled.add(new Segment(run, channel.position(), names.inMemory.size()));
+                for (String name : names.inMemory) {
+                    writeName(out, name);
+                }
+                names.inMemory.clear();
+            }
+            out.flush();
+        }
+        estimatedBytes = 0;
+    }
+
+    /**
+     * Merges the city's segments, {@link #MAX_FAN_IN} at a time, into
+     * segments of new runs until at most that many remain.
+     */
+    private void reduceRuns(CityNames names) throws IOException {
+        while (names.spilled.size() > MAX_FAN_IN) {
+            List<Segment> reduced = new ArrayList<>();
+            for (int from = 0; from < names.spilled.size(); from += MAX_FAN_IN) {
+                List<Segment> group = names.spilled.subList(from, Math.min(from + MAX_FAN_IN, names.spilled.size()));
+                reduced.add(group.size() == 1 ? group.get(0) : mergeToRun(group));
+            }
+            names.spilled.clear();
+            names.spilled.addAll(reduced);
+        }
+    }
+
+    private Segment mergeToRun(List<Segment> segments) throws IOException {
+        Path run = newRun();
+        int count = 0;
+        try (Merge merge = new Merge(segments, Collections.<String>emptyIterator());
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                        Files.newOutputStream(run), 64 * 1024))) {
+            while (merge.hasNext()) {
+                writeName(out, merge.next());
+                count++;
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        return new Segment(run, 0, count);
+    }
+
+    private Path newRun() throws IOException {
+        Path run = Files.createTempFile(tempDirectory, "city-names-", ".run");
+        runs.add(run);
+        return run;
+    }
+
+    private static void writeName(DataOutputStream out, String name) throws IOException {
+        out.writeInt(name.length());
+        out.writeChars(name);
+    }
+
+    /**
+     * The sorted, distinct names of some segments and one in-memory source.
+     * Read errors surface as {@link UncheckedIOException}.
+     */
+    private static final class Merge implements Iterator<String>, Closeable {
+
+        private final List<RunReader> readers = new ArrayList<>();
+        private final PriorityQueue<Cursor> queue;
+        private String last;
+
+        Merge(List<Segment> segments, Iterator<String> inMemory) throws IOException {
+            queue = new PriorityQueue<>(segments.size() + 1);
+            try {
+                for (Segment segment : segments) {
+                    RunReader reader = new RunReader(segment);
+                    readers.add(reader);
+                    Cursor.addIfNotEmpty(queue, reader);
+                }
+                Cursor.addIfNotEmpty(queue, inMemory);
+            } catch (IOException | RuntimeException e) {
+                close();
+                throw e;
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (!queue.isEmpty() && queue.peek().current.equals(last)) {
+                advance(queue.poll());
+            }
+            return !queue.isEmpty();
+        }
+
+        @Override
+        public String next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Cursor cursor = queue.poll();
+            last = cursor.current;
+            advance(cursor);
+            return last;
+        }
+
+        private void advance(Cursor cursor) {
+            if (cursor.advance()) {
+                queue.add(cursor);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            IOException failure = null;
+            for (RunReader reader : readers) {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                    failure = e;
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        }
+    }
+
+    /**
+     * Sequential reader of one segment.
+     */
+    private static final class RunReader implements Iterator<String>, Closeable {
+
+        private final FileChannel channel;
+        private final DataInputStream in;
+        private int remaining;
+
+        RunReader(Segment segment) throws IOException {
+            this.channel = FileChannel.open(segment.run, StandardOpenOption.READ);
+            channel.position(segment.offset);
+            this.in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel), 16 * 1024));
+            this.remaining = segment.count;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return remaining > 0;
+        }
+
+        @Override
+        public String next() {
+            remaining--;
+            try {
+                char[] chars = new char[in.readInt()];
+                for (int i = 0; i < chars.length; i++) {
+                    chars[i] = in.readChar();
+                }
+                return new String(chars);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    /**
+     * Head of one sorted source in the merge.
+     */
+    private static final class Cursor implements Comparable<Cursor> {
+
+        private final Iterator<String> source;
+        String current;
+
+        private Cursor(Iterator<String> source) {
+            this.source = source;
+            this.current = source.next();
+        }
+
+        static void addIfNotEmpty(PriorityQueue<Cursor> queue, Iterator<String> source) {
+            if (source.hasNext()) {
+                queue.add(new Cursor(source));
+            }
+        }
+
+        boolean advance() {
+            if (!source.hasNext()) {
+                return false;
+            }
+            current = source.next();
+            return true;
+        }
+
+        @Override
+        public int compareTo(Cursor other) {
+            return current.compareTo(other.current);
+        }
+    }
+}
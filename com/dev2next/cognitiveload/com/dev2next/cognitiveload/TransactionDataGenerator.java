@@ -0,0 +1,252 @@
+package com.dev2next.cognitiveload;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.SplittableRandom;
+
+/**
+ * Seeded generator of synthetic accounts, transactions and approvals.
+ *
+ * <p>
+ * The same settings and seed always produce the same data, so runs of
+ * different engines, or of one engine before and after a change, see
+ * identical input. Every ratio is the probability of the corresponding flag
+ * for each generated item; the number of transactions per account and of
+ * approvals per transaction are drawn uniformly between zero and twice the
+ * configured mean.
+ * </p>
+ * <pre>
+ * List&lt;Account&gt; accounts = TransactionDataGenerator.builder()
+ *         .accounts(100_000).transactionsPerAccount(20)
+ *         .usdRatio(0.3).transferRatio(0.5).approvalsPerTransaction(2)
+ *         .seed(42)
+ *         .build()
+ *         .generate();
+ * </pre>
+ */
+final class TransactionDataGenerator {
+
+    private static final String[] OTHER_CURRENCIES = {"EUR", "GBP", "JPY", "CHF"};
+    private static final TransactionType[] OTHER_TYPES = otherTypes();
+    private static final long EPOCH_2024 = 1_704_067_200_000L;
+    private static final long YEAR_MILLIS = 365L * 24 * 60 * 60 * 1000;
+    private static final long WEEK_MILLIS = 7L * 24 * 60 * 60 * 1000;
+
+    private final int accounts;
+    private final int transactionsPerAccount;
+    private final int approvalsPerTransaction;
+    private final double activeRatio;
+    private final double usdRatio;
+    private final double transferRatio;
+    private final double positiveRatio;
+    private final double approvedRatio;
+    private final double approvedLaterRatio;
+    private final int managers;
+    private final long seed;
+
+    private TransactionDataGenerator(Builder builder) {
+        this.accounts = builder.accounts;
+        this.transactionsPerAccount = builder.transactionsPerAccount;
+        this.approvalsPerTransaction = builder.approvalsPerTransaction;
+        this.activeRatio = builder.activeRatio;
+        this.usdRatio = builder.usdRatio;
+        this.transferRatio = builder.transferRatio;
+        this.positiveRatio = builder.positiveRatio;
+        this.approvedRatio = builder.approvedRatio;
+        this.approvedLaterRatio = builder.approvedLaterRatio;
+        this.managers = builder.managers;
+        this.seed = builder.seed;
+    }
+
+    static Builder builder() {
+        return new Builder();
+    }
+
+    List<Account> generate() {
+        List<Account> generated = new ArrayList<>(accounts);
+        iterator().forEachRemaining(generated::add);
+        return generated;
+    }
+
+    /**
+     * Generates the same accounts as {@link #generate()} one at a time, for
+     * data sets that should not be held in memory, for example to feed
+     * {@link TransactionSources#fromAccounts(Iterator)} or
+     * {@link BinaryTransactionFile#write(Iterator, java.nio.file.Path)}.
+     */
+    Iterator<Account> iterator() {
+        SplittableRandom random = new SplittableRandom(seed);
+        return new Iterator<Account>() {
+            private int next;
+
+            @Override
+            public boolean hasNext() {
+                return next < accounts;
+            }
+
+            @Override
+            public Account next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return account(random, next++);
+            }
+        };
+    }
+
+    private Account account(SplittableRandom random, int index) {
+        String id = "A" + index;
+        boolean active = random.nextDouble() < activeRatio;
+        int count = count(random, transactionsPerAccount);
+        List<Transaction> transactions = new ArrayList<>(count);
+        for (int t = 0; t < count; t++) {
+            transactions.add(transaction(random, id + "-T" + t));
+        }
+        return new Account(id, active, transactions);
+    }
+
+    private Transaction transaction(SplittableRandom random, String id) {
+        double amount = Math.round(random.nextDouble(1, 10_000) * 100) / 100.0;
+        if (random.nextDouble() >= positiveRatio) {
+            amount = -amount;
+        }
+        String currency = random.nextDouble() < usdRatio
+                ? "USD" : OTHER_CURRENCIES[random.nextInt(OTHER_CURRENCIES.length)];
+        TransactionType type = random.nextDouble() < transferRatio
+                ? TransactionType.TRANSFER : OTHER_TYPES[random.nextInt(OTHER_TYPES.length)];
+        long date = EPOCH_2024 + random.nextLong(YEAR_MILLIS);
+
+        int count = count(random, approvalsPerTransaction);
+        List<Approval> approvals = new ArrayList<>(count);
+        for (int a = 0; a < count; a++) {
+            boolean later = random.nextDouble() < approvedLaterRatio;
+            long offset = 1 + random.nextLong(WEEK_MILLIS);
+            approvals.add(new Approval("MGR" + random.nextInt(managers), random.nextDouble() < approvedRatio,
+                    new Date(later ? date + offset : date - offset)));
+        }
+        return new Transaction(id, amount, currency, type, new Date(date), approvals);
+    }
+
+    private static int count(SplittableRandom random, int mean) {
+        return mean == 0 ? 0 : random.nextInt(2 * mean + 1);
+    }
+
+    private static TransactionType[] otherTypes() {
+        List<TransactionType> types = new ArrayList<>();
+        for (TransactionType type : TransactionType.values()) {
+            if (type != TransactionType.TRANSFER) {
+                types.add(type);
+            }
+        }
+        return types.toArray(new TransactionType[0]);
+    }
+
+    static final class Builder {
+
+        private int accounts = 10_000;
+        private int transactionsPerAccount = 10;
+        private int approvalsPerTransaction = 2;
+        private double activeRatio = 0.9;
+        private double usdRatio = 0.5;
+        private double transferRatio = 0.5;
+        private double positiveRatio = 0.95;
+        private double approvedRatio = 0.7;
+        private double approvedLaterRatio = 0.8;
+        private int managers = 50;
+        private long seed = 42;
+
+        private Builder() {
+        }
+
+        Builder accounts(int accounts) {
+            this.accounts = nonNegative("accounts", accounts);
+            return this;
+        }
+
+        /**
+         * Mean number of transactions per account.
+         */
+        Builder transactionsPerAccount(int mean) {
+            this.transactionsPerAccount = nonNegative("transactionsPerAccount", mean);
+            return this;
+        }
+
+        /**
+         * Mean number of approvals per transaction.
+         */
+        Builder approvalsPerTransaction(int mean) {
+            this.approvalsPerTransaction = nonNegative("approvalsPerTransaction", mean);
+            return this;
+        }
+
+        Builder activeRatio(double ratio) {
+            this.activeRatio = ratio("activeRatio", ratio);
+            return this;
+        }
+
+        Builder usdRatio(double ratio) {
+            this.usdRatio = ratio("usdRatio", ratio);
+            return this;
+        }
+
+        Builder transferRatio(double ratio) {
+            this.transferRatio = ratio("transferRatio", ratio);
+            return this;
+        }
+
+        Builder positiveRatio(double ratio) {
+            this.positiveRatio = ratio("positiveRatio", ratio);
+            return this;
+        }
+
+        /**
+         * Share of approvals that are manager approvals.
+         */
+        Builder approvedRatio(double ratio) {
+            this.approvedRatio = ratio("approvedRatio", ratio);
+            return this;
+        }
+
+        /**
+         * Share of approvals dated after their transaction.
+         */
+        Builder approvedLaterRatio(double ratio) {
+            this.approvedLaterRatio = ratio("approvedLaterRatio", ratio);
+            return this;
+        }
+
+        Builder managers(int managers) {
+            if (managers < 1) {
+                throw new IllegalArgumentException("managers must be positive: " + managers);
+            }
+            this.managers = managers;
+            return this;
+        }
+
+        Builder seed(long seed) {
+            this.seed = seed;
+            return this;
+        }
+
+        TransactionDataGenerator build() {
+            return new TransactionDataGenerator(this);
+        }
+
+        private static int nonNegative(String name, int value) {
+            if (value < 0) {
+                throw new IllegalArgumentException(name + " must not be negative: " + value);
+            }
+            return value;
+        }
+
+        private static double ratio(String name, double value) {
+            if (!(value >= 0 && value <= 1)) {
+                throw new IllegalArgumentException(name + " must be between 0 and 1: " + value);
+            }
+            return value;
+        }
+    }
+}
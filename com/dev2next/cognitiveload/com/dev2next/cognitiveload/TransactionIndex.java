@@ -0,0 +1,241 @@
+package com.dev2next.cognitiveload;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Objects;
+import java.util.TreeSet;
+
+/**
+ * Secondary index of transactions by (currency, type), maintained as
+ * transactions are added.
+ *
+ * <p>
+ * An approved-transfer query only visits the transactions filed under its
+ * key, so its cost depends on how many transactions have that currency and
+ * type, not on the total number of transactions. Within a key, transactions
+ * are also kept ordered by amount and by date for range queries.
+ * </p>
+ *
+ * <p>
+ * When transactions are added in account order, query results come out in the
+ * same order as {@link BetterControlStructures#findApprovedUsdTransfers(List)}.
+ * Transactions without a date are left out of the date ordering only.
+ * Not thread-safe.
+ * </p>
+ */
+final class TransactionIndex {
+
+    /**
+     * An indexed transaction with its owning account.
+     */
+    static final class Entry {
+
+        private final Account account;
+        private final Transaction transaction;
+        private final long sequence;
+
+        private Entry(Account account, Transaction transaction, long sequence) {
+            this.account = account;
+            this.transaction = transaction;
+            this.sequence = sequence;
+        }
+
+        Account getAccount() {
+            return account;
+        }
+
+        Transaction getTransaction() {
+            return transaction;
+        }
+    }
+
+    private static final Comparator<Entry> BY_AMOUNT = Comparator
+            .comparingDouble((Entry e) -> e.transaction.getAmount())
+            .thenComparingLong(e -> e.sequence);
+
+    private static final Comparator<Entry> BY_DATE = Comparator
+            .comparingLong((Entry e) -> e.transaction.getDate().getTime())
+            .thenComparingLong(e -> e.sequence);
+
+    private static final class Bucket {
+
+        final List<Entry> inOrder = new ArrayList<>();
+        final NavigableSet<Entry> byAmount = new TreeSet<>(BY_AMOUNT);
+        final NavigableSet<Entry> byDate = new TreeSet<>(BY_DATE);
+    }
+
+    private static final class Key {
+
+        final String currency;
+        final TransactionType type;
+
+        Key(String currency, TransactionType type) {
+            this.currency = currency;
+            this.type = type;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Key)) {
+                return false;
+            }
+            Key that = (Key) other;
+            return Objects.equals(currency, that.currency) && type == that.type;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(currency, type);
+        }
+    }
+
+    private final Map<Key, Bucket> buckets = new HashMap<>();
+    private final boolean ordered;
+    private long sequence;
+
+    /**
+     * Creates an index that also keeps amount and date orderings.
+     */
+    TransactionIndex() {
+        this(true);
+    }
+
+    /**
+     * @param ordered {@code false} to skip the amount and date orderings,
+     * which makes adding cheaper but disables the range queries
+     */
+    TransactionIndex(boolean ordered) {
+        this.ordered = ordered;
+    }
+
+    static TransactionIndex of(List<Account> accounts) {
+        TransactionIndex index = new TransactionIndex();
+        accounts.forEach(index::addAccount);
+        return index;
+    }
+
+    /**
+     * Indexes every transaction of {@code account}. Null accounts are
+     * ignored.
+     */
+    void addAccount(Account account) {
+        if (account == null) {
+            return;
+        }
+        for (Transaction txn : account.getTransactions()) {
+            add(account, txn);
+        }
+    }
+
+    /**
+     * Indexes one transaction. Transactions without a currency or type, and
+     * null transactions, are never candidates and are not indexed.
+     */
+    void add(Account account, Transaction txn) {
+        if (txn == null || txn.getCurrency() == null || txn.getType() == null) {
+            return;
+        }
+        Entry entry = new Entry(account, txn, sequence++);
+        Bucket bucket = buckets.computeIfAbsent(new Key(txn.getCurrency(), txn.getType()), k -> new Bucket());
+        bucket.inOrder.add(entry);
+        if (ordered) {
+            bucket.byAmount.add(entry);
+            if (txn.getDate() != null) {
+                bucket.byDate.add(entry);
+            }
+        }
+    }
+
+    List<ApprovedTransfer> findApprovedUsdTransfers() {
+        List<ApprovedTransfer> matches = new ArrayList<>();
+        findApprovedTransfers("USD", TransactionType.TRANSFER, (accountId, transactionId, managerId)
+                -> matches.add(new ApprovedTransfer(accountId, transactionId, managerId)));
+        return matches;
+    }
+
+    /**
+     * Emits manager approvals dated after positive transactions of
+     * {@code currency} and {@code type} on active accounts, visiting only the
+     * transactions filed under that key.
+     */
+    void findApprovedTransfers(String currency, TransactionType type, ResultSink sink) {
+        Bucket bucket = buckets.get(new Key(currency, type));
+        if (bucket == null) {
+            return;
+        }
+        for (Entry entry : bucket.inOrder) {
+            emitApprovals(entry, sink);
+        }
+    }
+
+    /**
+     * Transactions of {@code currency} and {@code type} with an amount from
+     * {@code minimum} to {@code maximum}, both inclusive, in ascending amount
+     * order.
+     */
+    NavigableSet<Entry> byAmount(String currency, TransactionType type, double minimum, double maximum) {
+        Bucket bucket = orderedBucket(currency, type);
+        if (bucket == null) {
+            return Collections.emptyNavigableSet();
+        }
+        return bucket.byAmount.subSet(probe(minimum, 0, Long.MIN_VALUE), true,
+                probe(maximum, 0, Long.MAX_VALUE), true);
+    }
+
+    /**
+     * Transactions of {@code currency} and {@code type} dated from
+     * {@code fromMillis} inclusive to {@code toMillis} exclusive, in ascending
+     * date order. Transactions without a date are never returned.
+     */
+    NavigableSet<Entry> byDate(String currency, TransactionType type, long fromMillis, long toMillis) {
+        Bucket bucket = orderedBucket(currency, type);
+        if (bucket == null) {
+            return Collections.emptyNavigableSet();
+        }
+        return bucket.byDate.subSet(probe(0, fromMillis, Long.MIN_VALUE), true,
+                probe(0, toMillis, Long.MIN_VALUE), false);
+    }
+
+    /**
+     * Number of transactions filed under {@code currency} and {@code type}.
+     */
+    int size(String currency, TransactionType type) {
+        Bucket bucket = buckets.get(new Key(currency, type));
+        return bucket == null ? 0 : bucket.inOrder.size();
+    }
+
+    private Bucket orderedBucket(String currency, TransactionType type) {
+        if (!ordered) {
+            throw new IllegalStateException("Index was created without amount and date ordering");
+        }
+        return buckets.get(new Key(currency, type));
+    }
+
+    private static void emitApprovals(Entry entry, ResultSink sink) {
+        Account account = entry.account;
+        Transaction txn = entry.transaction;
+        if (account == null || !account.isActive() || !BetterControlStructures.isValidTransaction(txn)) {
+            return;
+        }
+        for (Approval approval : txn.getApprovals()) {
+            if (BetterControlStructures.isValidApproval(approval, txn)) {
+                sink.write(account.getId(), txn.getId(), approval.getManagerId());
+            }
+        }
+    }
+
+    /**
+     * A search key for the ordered sets: a transaction-less entry carrying
+     * only the fields the comparators look at.
+     */
+    private static Entry probe(double amount, long dateMillis, long sequence) {
+        return new Entry(null, new Transaction(null, amount, null, null, new Date(dateMillis),
+                Collections.emptyList()), sequence);
+    }
+}
@@ -0,0 +1,220 @@
+package com.dev2next.cognitiveload;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Throughput, allocation and size scaling of every approved-transfer engine on
+ * data from {@link TransactionDataGenerator}.
+ *
+ * <p>
+ * Usage: {@code TransactionProcessingBenchmark [accounts...]}, by default
+ * 1,000, 10,000 and 100,000 accounts of about 10 transactions each. For every
+ * size and engine, the query is warmed up and then timed over several
+ * iterations; engines that work on a prepared structure (columnar store,
+ * index, binary file) are prepared once, outside the timing. Matches go to a
+ * counting {@link ResultSink}, and every engine's count is checked against
+ * {@link BetterControlStructures}.
+ * </p>
+ *
+ * <p>
+ * Allocation is the sum of the HotSpot per-thread allocation counters of all
+ * live threads, so it includes fork/join workers. It is only reported on JVMs
+ * that expose {@code com.sun.management.ThreadMXBean}. Run with a fixed heap
+ * (for example {@code -Xms4g -Xmx4g}) so GC sizing does not skew the larger
+ * runs.
+ * </p>
+ */
+public class TransactionProcessingBenchmark {
+
+    private static final Logger LOGGER = Logger.getLogger(TransactionProcessingBenchmark.class.getName());
+
+    private static final int[] DEFAULT_SIZES = {1_000, 10_000, 100_000};
+    private static final int WARMUP_ITERATIONS = 5;
+    private static final int MEASURED_ITERATIONS = 10;
+    private static final String NESTED = "DeeplyNestedControlStructures (stdout discarded)";
+
+    /**
+     * Builds whatever an engine needs from the accounts; only the returned
+     * query is timed.
+     */
+    @FunctionalInterface
+    private interface Engine {
+
+        Query prepare(List<Account> accounts) throws IOException;
+    }
+
+    @FunctionalInterface
+    private interface Query {
+
+        void run(ResultSink sink) throws IOException;
+    }
+
+    /**
+     * Counts matches and folds their ids into a checksum, so the JIT cannot
+     * drop the work, without allocating.
+     */
+    private static final class CountingSink implements ResultSink {
+
+        long count;
+        long checksum;
+
+        @Override
+        public void write(String accountId, String transactionId, String managerId) {
+            count++;
+            checksum += accountId.hashCode() * 31L + transactionId.hashCode() + managerId.hashCode();
+        }
+    }
+
+    private static final PrintStream DISCARD = new PrintStream(new OutputStream() {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    });
+
+    public static void main(String[] args) throws IOException {
+        int[] sizes = args.length == 0 ? DEFAULT_SIZES : Arrays.stream(args).mapToInt(Integer::parseInt).toArray();
+        List<Closeable> resources = new ArrayList<>();
+        try {
+            for (int size : sizes) {
+                List<Account> accounts = TransactionDataGenerator.builder()
+                        .accounts(size)
+                        .transactionsPerAccount(10)
+                        .approvalsPerTransaction(2)
+                        .seed(42)
+                        .build()
+                        .generate();
+                long transactions = accounts.stream().mapToLong(a -> a.getTransactions().size()).sum();
+                LOGGER.log(Level.INFO, "{0} accounts, {1} transactions",
+                        new Object[]{accounts.size(), transactions});
+
+                long expected = -1;
+                for (Map.Entry<String, Engine> engine : engines(resources).entrySet()) {
+                    long matches = measure(engine.getKey(), engine.getValue(), accounts, transactions);
+                    if (expected < 0) {
+                        expected = matches;
+                    } else if (matches >= 0 && matches != expected) {
+                        throw new IllegalStateException(engine.getKey() + " found " + matches
+                                + " matches, expected " + expected);
+                    }
+                }
+            }
+        } finally {
+            for (int i = resources.size() - 1; i >= 0; i--) {
+                resources.get(i).close();
+            }
+        }
+    }
+
+    private static Map<String, Engine> engines(List<Closeable> resources) {
+        Map<String, Engine> engines = new LinkedHashMap<>();
+        engines.put("BetterControlStructures", accounts -> {
+            BetterControlStructures processor = new BetterControlStructures();
+            return sink -> processor.processApprovedUsdTransfers(accounts, sink);
+        });
+        engines.put(NESTED, accounts -> {
+            DeeplyNestedControlStructures processor = new DeeplyNestedControlStructures();
+            return sink -> {
+                PrintStream out = System.out;
+                System.setOut(DISCARD);
+                try {
+                    processor.processTransactions(accounts);
+                } finally {
+                    System.setOut(out);
+                }
+            };
+        });
+        engines.put("BetterControlStructures (fork/join)", accounts -> {
+            BetterControlStructures processor = new BetterControlStructures();
+            return sink -> processor.findApprovedUsdTransfers(accounts, ForkJoinPool.commonPool())
+                    .forEach(sink::write);
+        });
+        engines.put("TransferReport", accounts -> {
+            TransferReport report = TransferReport.approvedUsdTransfers();
+            return sink -> report.run(accounts, sink);
+        });
+        engines.put("TransactionScanner", accounts
+                -> sink -> TransactionScanner.scan(TransactionSources.fromAccounts(accounts.iterator()), sink));
+        engines.put("ApprovalDetector", accounts -> sink -> {
+            ApprovalDetector detector = new ApprovalDetector(sink, Integer.MAX_VALUE, Long.MAX_VALUE);
+            accounts.forEach(detector::onAccount);
+        });
+        engines.put("ColumnarTransactionStore (prebuilt)", accounts -> {
+            ColumnarTransactionStore store = ColumnarTransactionStore.from(accounts);
+            return sink -> store.findApprovedTransfers("USD", TransactionType.TRANSFER, sink);
+        });
+        engines.put("TransactionIndex (prebuilt)", accounts -> {
+            TransactionIndex index = TransactionIndex.of(accounts);
+            return sink -> index.findApprovedTransfers("USD", TransactionType.TRANSFER, sink);
+        });
+        engines.put("BinaryTransactionFile (mapped)", accounts -> {
+            Path file = Files.createTempFile("transactions", ".bin");
+            resources.add(() -> Files.deleteIfExists(file));
+            BinaryTransactionFile.write(accounts.iterator(), file);
+            BinaryTransactionFile binary = BinaryTransactionFile.open(file);
+            resources.add(binary);
+            return sink -> binary.findApprovedTransfers("USD", TransactionType.TRANSFER, sink);
+        });
+        return engines;
+    }
+
+    /**
+     * @return the number of matches, or -1 if the engine does not report them
+     * to the sink
+     */
+    private static long measure(String label, Engine engine, List<Account> accounts, long transactions)
+            throws IOException {
+        Query query = engine.prepare(accounts);
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            query.run(new CountingSink());
+        }
+        CountingSink sink = new CountingSink();
+        long bytesBefore = allocatedBytes();
+        long start = System.nanoTime();
+        for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+            sink.count = 0;
+            query.run(sink);
+        }
+        long elapsed = System.nanoTime() - start;
+        long allocated = bytesBefore < 0 ? -1 : allocatedBytes() - bytesBefore;
+
+        long processed = transactions * MEASURED_ITERATIONS;
+        long matches = NESTED.equals(label) ? -1 : sink.count;
+        LOGGER.log(Level.INFO, "  {0}: {1} txn/s, {2} ms/query, {3} bytes/txn, {4} matches",
+                new Object[]{label,
+                    processed * 1_000_000_000L / Math.max(elapsed, 1),
+                    String.format("%.2f", elapsed / 1e6 / MEASURED_ITERATIONS),
+                    allocated < 0 ? "n/a" : String.format("%.2f", (double) allocated / processed),
+                    matches < 0 ? "n/a" : matches});
+        return matches;
+    }
+
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+            return -1;
+        }
+        long total = 0;
+        for (long bytes : ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(threads.getAllThreadIds())) {
+            total += Math.max(bytes, 0);
+        }
+        return total;
+    }
+}
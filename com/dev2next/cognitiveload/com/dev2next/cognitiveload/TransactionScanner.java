@@ -0,0 +1,140 @@
+package com.dev2next.cognitiveload;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Finds approved USD transfers in a {@link TransactionSource} without ever
+ * materializing a {@code List<Account>}.
+ *
+ * <p>
+ * It applies the same rules as
+ * {@link BetterControlStructures#findApprovedUsdTransfers(java.util.List)}:
+ * active account, positive amount, USD transfer, manager approval dated after
+ * the transaction. Only the current transaction is held in memory, and the
+ * source is only read when the next match is requested, so a slow consumer
+ * naturally slows down reading.
+ * </p>
+ */
+final class TransactionScanner {
+
+    private TransactionScanner() {
+    }
+
+    /**
+     * Writes every match to {@code sink}, in source order, then closes the
+     * source. Unlike {@link #stream(TransactionSource)}, no match object is
+     * built.
+     */
+    static void scan(TransactionSource source, ResultSink sink) throws IOException {
+        try (TransactionSource accounts = source) {
+            while (accounts.nextAccount()) {
+                if (!accounts.accountActive()) {
+                    continue;
+                }
+                for (Transaction txn = accounts.nextTransaction(); txn != null; txn = accounts.nextTransaction()) {
+                    if (!BetterControlStructures.isValidTransaction(txn) || !BetterControlStructures.isUsdTransfer(txn)) {
+                        continue;
+                    }
+                    for (Approval approval : txn.getApprovals()) {
+                        if (BetterControlStructures.isValidApproval(approval, txn)) {
+                            sink.write(accounts.accountId(), txn.getId(), approval.getManagerId());
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns a lazy, sequential stream of the matches in {@code source}.
+     * Closing the stream closes the source. Read errors surface as
+     * {@link UncheckedIOException}.
+     */
+    static Stream<ApprovedTransfer> stream(TransactionSource source) {
+        Spliterator<ApprovedTransfer> spliterator = Spliterators.spliteratorUnknownSize(
+                new MatchIterator(source), Spliterator.ORDERED | Spliterator.NONNULL);
+        return StreamSupport.stream(spliterator, false).onClose(() -> {
+            try {
+                source.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    /**
+     * Walks accounts, transactions and approvals as a state machine so that
+     * each {@link #next()} reads only as far as the next match.
+     */
+    private static final class MatchIterator implements Iterator<ApprovedTransfer> {
+
+        private final TransactionSource source;
+        private boolean inAccount;
+        private Transaction txn;
+        private Iterator<Approval> approvals;
+        private ApprovedTransfer next;
+        private boolean exhausted;
+
+        MatchIterator(TransactionSource source) {
+            this.source = source;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (next == null && !exhausted) {
+                try {
+                    next = advance();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                exhausted = next == null;
+            }
+            return next != null;
+        }
+
+        @Override
+        public ApprovedTransfer next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            ApprovedTransfer match = next;
+            next = null;
+            return match;
+        }
+
+        private ApprovedTransfer advance() throws IOException {
+            while (true) {
+                if (approvals != null) {
+                    while (approvals.hasNext()) {
+                        Approval approval = approvals.next();
+                        if (BetterControlStructures.isValidApproval(approval, txn)) {
+                            return new ApprovedTransfer(source.accountId(), txn.getId(), approval.getManagerId());
+                        }
+                    }
+                    approvals = null;
+                }
+                if (inAccount) {
+                    txn = source.nextTransaction();
+                    if (txn == null) {
+                        inAccount = false;
+                    } else if (BetterControlStructures.isValidTransaction(txn)
+                            && BetterControlStructures.isUsdTransfer(txn)) {
+                        approvals = txn.getApprovals().iterator();
+                    }
+                    continue;
+                }
+                if (!source.nextAccount()) {
+                    return null;
+                }
+                inAccount = source.accountActive();
+            }
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package com.dev2next.cognitiveload;
+
+import java.io.IOException;
+
+/**
+ * Pull-based cursor over accounts and their transactions.
+ *
+ * <p>
+ * Unlike a {@code List<Account>}, a source only has to hold the current
+ * account header and hand out its transactions one at a time, so an export
+ * far larger than the heap can be scanned. The consumer pulls at its own
+ * pace, which is the backpressure: a source never reads ahead of what has
+ * been asked for.
+ * </p>
+ *
+ * <p>
+ * Typical use:
+ * </p>
+ * <pre>
+ * while (source.nextAccount()) {
+ *     Transaction txn;
+ *     while ((txn = source.nextTransaction()) != null) {
+ *         ...
+ *     }
+ * }
+ * </pre>
+ *
+ * @see TransactionSources
+ */
+interface TransactionSource extends AutoCloseable {
+
+    /**
+     * Moves to the next account, skipping any transactions of the current one
+     * that were not read.
+     *
+     * @return {@code false} when there are no more accounts
+     */
+    boolean nextAccount() throws IOException;
+
+    String accountId();
+
+    boolean accountActive();
+
+    /**
+     * @return the next transaction of the current account, or {@code null}
+     * when it has no more
+     */
+    Transaction nextTransaction() throws IOException;
+
+    @Override
+    void close() throws IOException;
+}
@@ -0,0 +1,416 @@
+package com.dev2next.cognitiveload;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+
+/**
+ * Factories for {@link TransactionSource}s.
+ *
+ * <p>
+ * The line format read by {@link #fromFile(Path)} and written by
+ * {@link #write(Iterator, Writer)} has one account header followed by its
+ * transactions:
+ * </p>
+ * <pre>
+ * A|accountId|active
+ * T|txnId|amount|currency|TYPE|epochMillis|managerId,approved,epochMillis;...
+ * </pre>
+ *
+ * <p>
+ * In text fields a backslash escapes the separators {@code | , ;}, itself and
+ * line breaks ({@code \n}, {@code \r}). A field that is exactly {@code \0}
+ * is {@code null}, for text, type and date fields alike.
+ * </p>
+ */
+final class TransactionSources {
+
+    /**
+     * Put this on a queue read by {@link #fromQueue(BlockingQueue)} to signal
+     * that no more accounts will follow.
+     */
+    static final Account END_OF_STREAM = new Account(null, false, Collections.emptyList());
+
+    private static final String NULL_FIELD = "\\0";
+
+    private TransactionSources() {
+    }
+
+    /**
+     * Adapts already-built accounts, for example from a generator. Null
+     * accounts and transactions are skipped, as the scanners would skip them
+     * anyway.
+     */
+    static TransactionSource fromAccounts(Iterator<Account> accounts) {
+        return new IteratorSource(accounts);
+    }
+
+    /**
+     * Takes accounts from a queue filled by one or more producers. With a
+     * bounded queue, producers block while the scan is behind, so memory stays
+     * bounded by the queue capacity. If the reading thread is interrupted
+     * while waiting, reading fails with a {@link CancellationException} and
+     * the interrupt status is kept, so a cancelled scan is never mistaken for
+     * a finished one.
+     */
+    static TransactionSource fromQueue(BlockingQueue<Account> queue) {
+        return new IteratorSource(new Iterator<Account>() {
+            private Account next;
+
+            @Override
+            public boolean hasNext() {
+                if (next == null) {
+                    try {
+                        next = queue.take();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        CancellationException cancelled = new CancellationException(
+                                "Interrupted while waiting for the next account");
+                        cancelled.initCause(e);
+                        throw cancelled;
+                    }
+                }
+                return next != END_OF_STREAM;
+            }
+
+            @Override
+            public Account next() {
+                Account account = next;
+                next = null;
+                return account;
+            }
+        });
+    }
+
+    /**
+     * Reads accounts and transactions lazily, one line at a time.
+     */
+    static TransactionSource fromFile(Path file) throws IOException {
+        return new LineSource(Files.newBufferedReader(file, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Writes accounts in the line format understood by
+     * {@link #fromFile(Path)}.
+     */
+    static void write(Iterator<Account> accounts, Writer out) throws IOException {
+        while (accounts.hasNext()) {
+            Account account = accounts.next();
+            if (account == null) {
+                continue;
+            }
+            out.write("A|");
+            writeText(account.getId(), out);
+            out.write('|');
+            out.write(Boolean.toString(account.isActive()));
+            out.write('\n');
+            for (Transaction txn : account.getTransactions()) {
+                if (txn == null) {
+                    continue;
+                }
+                out.write("T|");
+                writeText(txn.getId(), out);
+                out.write('|');
+                out.write(Double.toString(txn.getAmount()));
+                out.write('|');
+                writeText(txn.getCurrency(), out);
+                out.write('|');
+                writeText(txn.getType() == null ? null : txn.getType().name(), out);
+                out.write('|');
+                writeDate(txn.getDate(), out);
+                out.write('|');
+                boolean first = true;
+                for (Approval approval : txn.getApprovals()) {
+                    if (approval == null) {
+                        continue;
+                    }
+                    if (!first) {
+                        out.write(';');
+                    }
+                    writeText(approval.getManagerId(), out);
+                    out.write(',');
+                    out.write(Boolean.toString(approval.isManagerApproved()));
+                    out.write(',');
+                    writeDate(approval.getDate(), out);
+                    first = false;
+                }
+                out.write('\n');
+            }
+        }
+    }
+
+    private static void writeText(String value, Writer out) throws IOException {
+        if (value == null) {
+            out.write(NULL_FIELD);
+            return;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '\\':
+                case '|':
+                case ',':
+                case ';':
+                    out.write('\\');
+                    out.write(c);
+                    break;
+                case '\n':
+                    out.write("\\n");
+                    break;
+                case '\r':
+                    out.write("\\r");
+                    break;
+                default:
+                    out.write(c);
+            }
+        }
+    }
+
+    private static void writeDate(Date date, Writer out) throws IOException {
+        out.write(date == null ? NULL_FIELD : Long.toString(date.getTime()));
+    }
+
+    private static final class IteratorSource implements TransactionSource {
+
+        private final Iterator<Account> accounts;
+        private Account current;
+        private Iterator<Transaction> transactions = Collections.emptyIterator();
+
+        IteratorSource(Iterator<Account> accounts) {
+            this.accounts = accounts;
+        }
+
+        @Override
+        public boolean nextAccount() {
+            while (accounts.hasNext()) {
+                current = accounts.next();
+                if (current != null) {
+                    transactions = current.getTransactions().iterator();
+                    return true;
+                }
+            }
+            current = null;
+            return false;
+        }
+
+        @Override
+        public String accountId() {
+            return current.getId();
+        }
+
+        @Override
+        public boolean accountActive() {
+            return current.isActive();
+        }
+
+        @Override
+        public Transaction nextTransaction() {
+            while (transactions.hasNext()) {
+                Transaction txn = transactions.next();
+                if (txn != null) {
+                    return txn;
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public void close() {
+            // Nothing to release.
+        }
+    }
+
+    private static final class LineSource implements TransactionSource {
+
+        private final BufferedReader reader;
+        private String pending;
+        private String accountId;
+        private boolean accountActive;
+
+        LineSource(BufferedReader reader) {
+            this.reader = reader;
+        }
+
+        @Override
+        public boolean nextAccount() throws IOException {
+            String line = pending != null ? pending : reader.readLine();
+            pending = null;
+            while (line != null && !line.startsWith("A|")) {
+                line = reader.readLine();
+            }
+            if (line == null) {
+                return false;
+            }
+            FieldReader fields = new FieldReader(line, 2);
+            accountId = fields.next('|');
+            accountActive = Boolean.parseBoolean(fields.last(""));
+            return true;
+        }
+
+        @Override
+        public String accountId() {
+            return accountId;
+        }
+
+        @Override
+        public boolean accountActive() {
+            return accountActive;
+        }
+
+        @Override
+        public Transaction nextTransaction() throws IOException {
+            if (pending != null) {
+                return null;
+            }
+            String line = reader.readLine();
+            if (line == null) {
+                return null;
+            }
+            if (!line.startsWith("T|")) {
+                pending = line;
+                return null;
+            }
+            return parseTransaction(line);
+        }
+
+        @Override
+        public void close() throws IOException {
+            reader.close();
+        }
+
+        private static Transaction parseTransaction(String line) throws IOException {
+            FieldReader fields = new FieldReader(line, 2);
+            String id = fields.next('|');
+            String amount = fields.next('|');
+            String currency = fields.next('|');
+            String type = fields.next('|');
+            Date date = toDate(fields.next('|'));
+            List<Approval> approvals = new ArrayList<>(2);
+            while (!fields.atEnd()) {
+                String managerId = fields.next(',');
+                String approved = fields.next(',');
+                approvals.add(new Approval(managerId, Boolean.parseBoolean(approved), toDate(fields.last(";"))));
+            }
+            try {
+                return new Transaction(id, Double.parseDouble(amount), currency,
+                        type == null ? null : TransactionType.valueOf(type), date, approvals);
+            } catch (RuntimeException e) {
+                throw new IOException("Malformed transaction line: " + line, e);
+            }
+        }
+
+        private static Date toDate(String millis) throws IOException {
+            if (millis == null) {
+                return null;
+            }
+            try {
+                return new Date(Long.parseLong(millis));
+            } catch (NumberFormatException e) {
+                throw new IOException("Malformed date: " + millis, e);
+            }
+        }
+    }
+
+    /**
+     * Reads the escaped fields of one line in order.
+     */
+    private static final class FieldReader {
+
+        private final String line;
+        private final StringBuilder field = new StringBuilder();
+        private int position;
+        private boolean nullField;
+
+        FieldReader(String line, int position) {
+            this.line = line;
+            this.position = position;
+        }
+
+        boolean atEnd() {
+            return position >= line.length();
+        }
+
+        /**
+         * Reads a field that must end with {@code separator}.
+         */
+        String next(char separator) throws IOException {
+            char end = read();
+            if (end != separator) {
+                throw new IOException("Malformed line, expected '" + separator + "' at " + position + ": " + line);
+            }
+            return value();
+        }
+
+        /**
+         * Reads a field that ends with one of {@code separators} or the end
+         * of the line.
+         */
+        String last(String separators) throws IOException {
+            char end = read();
+            if (end != 0 && separators.indexOf(end) < 0) {
+                throw new IOException("Malformed line, unexpected '" + end + "' at " + position + ": " + line);
+            }
+            return value();
+        }
+
+        /**
+         * Reads up to the next unescaped separator into {@link #field}.
+         *
+         * @return the separator, or 0 at the end of the line
+         */
+        private char read() throws IOException {
+            field.setLength(0);
+            boolean isNull = false;
+            while (position < line.length()) {
+                char c = line.charAt(position++);
+                if (c == '|' || c == ',' || c == ';') {
+                    return finish(isNull, c);
+                }
+                if (c != '\\') {
+                    field.append(c);
+                    continue;
+                }
+                if (position >= line.length()) {
+                    throw new IOException("Dangling escape: " + line);
+                }
+                char escaped = line.charAt(position++);
+                switch (escaped) {
+                    case 'n':
+                        field.append('\n');
+                        break;
+                    case 'r':
+                        field.append('\r');
+                        break;
+                    case '0':
+                        isNull = true;
+                        break;
+                    default:
+                        field.append(escaped);
+                }
+            }
+            return finish(isNull, (char) 0);
+        }
+
+        private char finish(boolean isNull, char separator) throws IOException {
+            if (isNull && field.length() > 0) {
+                throw new IOException("Null marker inside a field: " + line);
+            }
+            nullField = isNull;
+            return separator;
+        }
+
+        private String value() {
+            return nullField ? null : field.toString();
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package com.dev2next.cognitiveload;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BiPredicate;
+
+/**
+ * Configurable version of the approved-transfer scan in
+ * {@link BetterControlStructures}.
+ *
+ * <p>
+ * Instead of hard-coded checks, a report is a set of {@link Rule}s at three
+ * levels: accounts, transactions (in the context of their account) and
+ * approvals (in the context of their transaction). Each level is compiled into
+ * a self-reordering {@link RuleChain}. Every approval that passes all three
+ * levels is reported. Variants such as EUR deposits or large transfers are
+ * a few builder calls instead of another hand-written scan:
+ * </p>
+ * <pre>
+ * TransferReport report = TransferReport.builder()
+ *         .activeAccounts()
+ *         .currency("EUR").type(TransactionType.DEPOSIT).amountBetween(1_000, 50_000)
+ *         .managerApprovedAfterTransaction()
+ *         .build();
+ * </pre>
+ *
+ * <p>
+ * A report keeps selectivity statistics across runs, so it should be reused,
+ * but not shared between threads.
+ * </p>
+ */
+final class TransferReport {
+
+    private final RuleChain<Account, Void> accountRules;
+    private final RuleChain<Transaction, Account> transactionRules;
+    private final RuleChain<Approval, Transaction> approvalRules;
+
+    private TransferReport(Builder builder) {
+        this.accountRules = new RuleChain<>(builder.accountRules);
+        this.transactionRules = new RuleChain<>(builder.transactionRules);
+        this.approvalRules = new RuleChain<>(builder.approvalRules);
+    }
+
+    static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * The report hard-coded in {@link BetterControlStructures}: manager
+     * approvals dated after positive USD transfers of active accounts.
+     */
+    static TransferReport approvedUsdTransfers() {
+        return builder()
+                .activeAccounts()
+                .amountAbove(0)
+                .currency("USD")
+                .type(TransactionType.TRANSFER)
+                .managerApprovedAfterTransaction()
+                .build();
+    }
+
+    List<ApprovedTransfer> run(List<Account> accounts) {
+        List<ApprovedTransfer> matches = new ArrayList<>();
+        run(accounts, (accountId, transactionId, managerId)
+                -> matches.add(new ApprovedTransfer(accountId, transactionId, managerId)));
+        return matches;
+    }
+
+    /**
+     * Emits the matches in account, transaction and approval order. Null
+     * accounts, transactions and approvals are skipped.
+     */
+    void run(List<Account> accounts, ResultSink sink) {
+        for (Account account : accounts) {
+            if (account == null || !accountRules.test(account, null)) {
+                continue;
+            }
+            for (Transaction txn : account.getTransactions()) {
+                if (txn == null || !transactionRules.test(txn, account)) {
+                    continue;
+                }
+                for (Approval approval : txn.getApprovals()) {
+                    if (approval != null && approvalRules.test(approval, txn)) {
+                        sink.write(account.getId(), txn.getId(), approval.getManagerId());
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Current rule order and measured pass rates, per level.
+     */
+    String explain() {
+        return "accounts: " + accountRules.passRates()
+                + "\ntransactions: " + transactionRules.passRates()
+                + "\napprovals: " + approvalRules.passRates();
+    }
+
+    static final class Builder {
+
+        private final List<Rule<Account, Void>> accountRules = new ArrayList<>();
+        private final List<Rule<Transaction, Account>> transactionRules = new ArrayList<>();
+        private final List<Rule<Approval, Transaction>> approvalRules = new ArrayList<>();
+
+        private Builder() {
+        }
+
+        Builder activeAccounts() {
+            return accountRule("active", Rule.CHEAP, (account, none) -> account.isActive());
+        }
+
+        Builder currency(String currency) {
+            return transactionRule("currency=" + currency, Rule.MODERATE,
+                    (txn, account) -> currency.equals(txn.getCurrency()));
+        }
+
+        Builder type(TransactionType type) {
+            return transactionRule("type=" + type, Rule.CHEAP, (txn, account) -> txn.getType() == type);
+        }
+
+        /**
+         * Amount strictly greater than {@code minimum}.
+         */
+        Builder amountAbove(double minimum) {
+            return transactionRule("amount>" + minimum, Rule.CHEAP, (txn, account) -> txn.getAmount() > minimum);
+        }
+
+        /**
+         * Amount between {@code minimum} and {@code maximum}, both inclusive.
+         */
+        Builder amountBetween(double minimum, double maximum) {
+            return transactionRule("amount in [" + minimum + ", " + maximum + "]", Rule.CHEAP,
+                    (txn, account) -> txn.getAmount() >= minimum && txn.getAmount() <= maximum);
+        }
+
+        Builder managerApproved() {
+            return approvalRule("managerApproved", Rule.CHEAP, (approval, txn) -> approval.isManagerApproved());
+        }
+
+        /**
+         * A manager approval dated after its transaction. One rule, not two:
+         * the date is only read once the approval is known to be approved,
+         * exactly as in {@link BetterControlStructures#isValidApproval}.
+         */
+        Builder managerApprovedAfterTransaction() {
+            return approvalRule("managerApprovedAfterTransaction", Rule.MODERATE,
+                    (approval, txn) -> approval.isManagerApproved() && approval.getDate().after(txn.getDate()));
+        }
+
+        Builder accountRule(String name, int cost, BiPredicate<Account, Void> predicate) {
+            accountRules.add(new Rule<>(name, cost, predicate));
+            return this;
+        }
+
+        Builder transactionRule(String name, int cost, BiPredicate<Transaction, Account> predicate) {
+            transactionRules.add(new Rule<>(name, cost, predicate));
+            return this;
+        }
+
+        Builder approvalRule(String name, int cost, BiPredicate<Approval, Transaction> predicate) {
+            approvalRules.add(new Rule<>(name, cost, predicate));
+            return this;
+        }
+
+        TransferReport build() {
+            return new TransferReport(this);
+        }
+    }
+}
@@ -0,0 +1,762 @@
+package com.dev2next.cognitiveload;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import com.dev2next.cognitiveload.BetterStreamsAndLambdas.Address;
+import com.dev2next.cognitiveload.BetterStreamsAndLambdas.Order;
+import com.dev2next.cognitiveload.BetterStreamsAndLambdas.User;
+
+/**
+ * Lazily reads {@link User}s, with their address and orders, from CSV or
+ * JSON-lines files.
+ *
+ * <p>
+ * Both formats have one user per line, UTF-8:
+ * </p>
+ * <pre>
+ * CSV (with this header line):
+ *   name,city,orders
+ *   " Alice ",New York,120;80
+ * JSON lines:
+ *   {"name":" Alice ","address":{"city":"New York"},"orders":[{"total":120},{"total":80}]}
+ * </pre>
+ *
+ * <p>
+ * In CSV, a field is quoted when it contains a comma or a quote, with quotes
+ * doubled, and an empty unquoted field is null. Quoted fields may not contain
+ * line breaks. In JSON, orders may also be plain numbers and unknown fields
+ * are skipped.
+ * </p>
+ *
+ * <p>
+ * The file is read through a {@link FileChannel} with positional reads into
+ * one reusable buffer per reader; line bytes and decoded characters also go
+ * into reused arrays, and plain decimal numbers are parsed without creating
+ * strings. Only the users themselves, their names and cities are allocated.
+ * The returned stream is splittable by byte range: each part starts at the
+ * first line beginning in its range, so parallel streams read the file from
+ * several positions at once. Closing the stream closes the file.
+ * </p>
+ */
+final class UserFileReader {
+
+    enum Format {
+        CSV,
+        JSON_LINES
+    }
+
+    static final String CSV_HEADER = "name,city,orders";
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final long MIN_SPLIT_BYTES = 1024 * 1024;
+    private static final int ESTIMATED_LINE_BYTES = 64;
+    private static final double[] POWERS_OF_TEN = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+        1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+
+    private UserFileReader() {
+    }
+
+    /**
+     * Streams the users of {@code file}, guessing the format from the
+     * extension: {@code .csv} or {@code .jsonl}/{@code .ndjson}.
+     */
+    static Stream<User> read(Path file) throws IOException {
+        return read(file, formatOf(file));
+    }
+
+    static Stream<User> read(Path file, Format format) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            return StreamSupport.stream(new UserSpliterator(channel, format, 0, channel.size()), false)
+                    .onClose(() -> {
+                        try {
+                            channel.close();
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    });
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    static Format formatOf(Path file) {
+        String name = file.getFileName().toString().toLowerCase();
+        if (name.endsWith(".csv")) {
+            return Format.CSV;
+        }
+        if (name.endsWith(".jsonl") || name.endsWith(".ndjson")) {
+            return Format.JSON_LINES;
+        }
+        throw new IllegalArgumentException("Unknown user file format: " + file);
+    }
+
+    /**
+     * Writes {@code users} in {@code format}, for example to produce test
+     * data.
+     *
+     * @throws IllegalArgumentException for values the format cannot hold and
+     * read back: CSV fields with line breaks, and non-finite order totals in
+     * JSON
+     */
+    static void write(Iterable<User> users, Path file, Format format) throws IOException {
+        try (Writer out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            if (format == Format.CSV) {
+                out.write(CSV_HEADER);
+                out.write('\n');
+            }
+            for (User user : users) {
+                if (format == Format.CSV) {
+                    writeCsv(user, out);
+                } else {
+                    writeJson(user, out);
+                }
+                out.write('\n');
+            }
+        }
+    }
+
+    private static void writeCsv(User user, Writer out) throws IOException {
+        writeCsvField(user.getName(), out);
+        out.write(',');
+        writeCsvField(cityOf(user), out);
+        out.write(',');
+        List<Order> orders = user.getOrders();
+        for (int i = 0; i < orders.size(); i++) {
+            if (i > 0) {
+                out.write(';');
+            }
+            out.write(Double.toString(orders.get(i).getTotal()));
+        }
+    }
+
+    private static void writeCsvField(String value, Writer out) throws IOException {
+        if (value == null) {
+            return;
+        }
+        if (value.indexOf('\n') >= 0 || value.indexOf('\r') >= 0) {
+            throw new IllegalArgumentException("CSV fields may not contain line breaks: " + value);
+        }
+        if (!value.isEmpty() && value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.charAt(0) != ' '
+                && value.charAt(value.length() - 1) != ' ') {
+            out.write(value);
+            return;
+        }
+        out.write('"');
+        out.write(value.replace("\"", "\"\""));
+        out.write('"');
+    }
+
+    private static void writeJson(User user, Writer out) throws IOException {
+        out.write("{\"name\":");
+        writeJsonString(user.getName(), out);
+        out.write(",\"address\":{\"city\":");
+        writeJsonString(cityOf(user), out);
+        out.write("},\"orders\":[");
+        List<Order> orders = user.getOrders();
+        for (int i = 0; i < orders.size(); i++) {
+            if (i > 0) {
+                out.write(',');
+            }
+            double total = orders.get(i).getTotal();
+            if (Double.isNaN(total) || Double.isInfinite(total)) {
+                throw new IllegalArgumentException("JSON cannot hold order total " + total);
+            }
+            out.write("{\"total\":");
+            out.write(Double.toString(total));
+            out.write('}');
+        }
+        out.write("]}");
+    }
+
+    private static void writeJsonString(String value, Writer out) throws IOException {
+        if (value == null) {
+            out.write("null");
+            return;
+        }
+        out.write('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                out.write('\\');
+                out.write(c);
+            } else if (c < 0x20) {
+                out.write(String.format("\\u%04x", (int) c));
+            } else {
+                out.write(c);
+            }
+        }
+        out.write('"');
+    }
+
+    private static String cityOf(User user) {
+        return user.getAddress() == null ? null : user.getAddress().getCity();
+    }
+
+    /**
+     * Users of the lines that start within {@code [start, end)}.
+     */
+    private static final class UserSpliterator implements Spliterator<User> {
+
+        private final FileChannel channel;
+        private final Format format;
+        private long start;
+        private final long end;
+        private LineReader lines;
+        private LineParser parser;
+
+        UserSpliterator(FileChannel channel, Format format, long start, long end) {
+            this.channel = channel;
+            this.format = format;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super User> action) {
+            try {
+                if (lines == null) {
+                    lines = new LineReader(channel, start, end);
+                    parser = new LineParser();
+                    if (start == 0 && format == Format.CSV && lines.next()) {
+                        if (!lines.equalsAscii(CSV_HEADER)) {
+                            throw new IOException("Expected CSV header '" + CSV_HEADER + "'");
+                        }
+                    }
+                }
+                while (lines.next()) {
+                    if (lines.isBlank()) {
+                        continue;
+                    }
+                    parser.reset(lines.chars(), lines.length(), lines.lineStart());
+                    action.accept(format == Format.CSV ? parser.csvUser() : parser.jsonUser());
+                    return true;
+                }
+                return false;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public Spliterator<User> trySplit() {
+            if (lines != null || end - start < 2 * MIN_SPLIT_BYTES) {
+                return null;
+            }
+            long middle = start + (end - start) / 2;
+            UserSpliterator prefix = new UserSpliterator(channel, format, start, middle);
+            start = middle;
+            return prefix;
+        }
+
+        @Override
+        public long estimateSize() {
+            return Math.max(1, (end - start) / ESTIMATED_LINE_BYTES);
+        }
+
+        @Override
+        public int characteristics() {
+            return ORDERED | NONNULL;
+        }
+    }
+
+    /**
+     * Reads the lines starting within a byte range, decoding each into a
+     * reused character array.
+     */
+    private static final class LineReader {
+
+        private final FileChannel channel;
+        private final long end;
+        private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder();
+        private long bufferStart;
+        private byte[] bytes = new byte[256];
+        private int byteLength;
+        private char[] chars = new char[256];
+        private int length;
+        private long lineStart;
+        private long position;
+
+        LineReader(FileChannel channel, long start, long end) throws IOException {
+            this.channel = channel;
+            this.end = end;
+            buffer.limit(0);
+            if (start == 0) {
+                position = 0;
+                bufferStart = 0;
+            } else {
+                // The line that contains start - 1 belongs to the previous
+                // range; this range starts after its line break.
+                position = start - 1;
+                bufferStart = position;
+                int b;
+                while ((b = read()) >= 0 && b != '\n') {
+                    // skip
+                }
+            }
+        }
+
+        /**
+         * Moves to the next line starting before the end of the range.
+         */
+        boolean next() throws IOException {
+            if (position >= end) {
+                return false;
+            }
+            lineStart = position;
+            byteLength = 0;
+            int b;
+            while ((b = read()) >= 0 && b != '\n') {
+                if (byteLength == bytes.length) {
+                    bytes = Arrays.copyOf(bytes, byteLength * 2);
+                }
+                bytes[byteLength++] = (byte) b;
+            }
+            if (b < 0 && byteLength == 0) {
+                return false;
+            }
+            if (byteLength > 0 && bytes[byteLength - 1] == '\r') {
+                byteLength--;
+            }
+            decode();
+            return true;
+        }
+
+        char[] chars() {
+            return chars;
+        }
+
+        int length() {
+            return length;
+        }
+
+        long lineStart() {
+            return lineStart;
+        }
+
+        boolean isBlank() {
+            for (int i = 0; i < length; i++) {
+                if (!Character.isWhitespace(chars[i])) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        boolean equalsAscii(String text) {
+            if (length != text.length()) {
+                return false;
+            }
+            for (int i = 0; i < length; i++) {
+                if (chars[i] != text.charAt(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private int read() throws IOException {
+            if (!buffer.hasRemaining()) {
+                bufferStart = position;
+                buffer.clear();
+                int read = channel.read(buffer, position);
+                buffer.flip();
+                if (read <= 0) {
+                    return -1;
+                }
+            }
+            position++;
+            return buffer.get() & 0xFF;
+        }
+
+        private void decode() throws CharacterCodingException {
+            if (chars.length < byteLength) {
+                chars = new char[Math.max(byteLength, chars.length * 2)];
+            }
+            int i = 0;
+            while (i < byteLength && bytes[i] >= 0) {
+                chars[i] = (char) bytes[i];
+                i++;
+            }
+            if (i == byteLength) {
+                length = byteLength;
+                return;
+            }
+            // Not pure ASCII: UTF-8 never needs more chars than bytes.
+            CharBuffer out = CharBuffer.wrap(chars);
+            decoder.reset();
+            CoderResult result = decoder.decode(ByteBuffer.wrap(bytes, 0, byteLength), out, true);
+            if (result.isError()) {
+                result.throwException();
+            }
+            decoder.flush(out);
+            length = out.position();
+        }
+    }
+
+    /**
+     * Parses one decoded line into a {@link User}.
+     */
+    private static final class LineParser {
+
+        private final StringBuilder text = new StringBuilder();
+        private final List<Order> orders = new ArrayList<>();
+        private char[] line;
+        private int length;
+        private int pos;
+        private long lineStart;
+
+        void reset(char[] line, int length, long lineStart) {
+            this.line = line;
+            this.length = length;
+            this.pos = 0;
+            this.lineStart = lineStart;
+        }
+
+        User csvUser() throws IOException {
+            String name = csvField();
+            expect(',');
+            String city = csvField();
+            expect(',');
+            orders.clear();
+            while (pos < length) {
+                int fieldEnd = pos;
+                while (fieldEnd < length && line[fieldEnd] != ';') {
+                    fieldEnd++;
+                }
+                orders.add(new Order(number(pos, fieldEnd)));
+                pos = fieldEnd < length ? fieldEnd + 1 : fieldEnd;
+            }
+            return new User(name, new Address(city), orders);
+        }
+
+        private String csvField() throws IOException {
+            if (pos < length && line[pos] == '"') {
+                pos++;
+                text.setLength(0);
+                while (true) {
+                    if (pos >= length) {
+                        throw error("Unterminated quoted field");
+                    }
+                    char c = line[pos++];
+                    if (c == '"') {
+                        if (pos < length && line[pos] == '"') {
+                            text.append('"');
+                            pos++;
+                        } else {
+                            return text.toString();
+                        }
+                    } else {
+                        text.append(c);
+                    }
+                }
+            }
+            int from = pos;
+            while (pos < length && line[pos] != ',') {
+                pos++;
+            }
+            return pos == from ? null : new String(line, from, pos - from);
+        }
+
+        User jsonUser() throws IOException {
+            String name = null;
+            String city = null;
+            orders.clear();
+            skipWhitespace();
+            expect('{');
+            if (!consume('}')) {
+                do {
+                    CharSequence key = jsonKey();
+                    skipWhitespace();
+                    expect(':');
+                    skipWhitespace();
+                    if ("name".contentEquals(key)) {
+                        name = jsonStringOrNull();
+                    } else if ("address".contentEquals(key)) {
+                        city = jsonAddressCity();
+                    } else if ("orders".contentEquals(key)) {
+                        jsonOrders();
+                    } else {
+                        skipValue();
+                    }
+                    skipWhitespace();
+                } while (consume(','));
+                expect('}');
+            }
+            return new User(name, new Address(city), orders);
+        }
+
+        private String jsonAddressCity() throws IOException {
+            if (consumeLiteral("null")) {
+                return null;
+            }
+            String city = null;
+            expect('{');
+            if (!consume('}')) {
+                do {
+                    CharSequence key = jsonKey();
+                    skipWhitespace();
+                    expect(':');
+                    skipWhitespace();
+                    if ("city".contentEquals(key)) {
+                        city = jsonStringOrNull();
+                    } else {
+                        skipValue();
+                    }
+                    skipWhitespace();
+                } while (consume(','));
+                expect('}');
+            }
+            return city;
+        }
+
+        private void jsonOrders() throws IOException {
+            if (consumeLiteral("null")) {
+                return;
+            }
+            expect('[');
+            if (consume(']')) {
+                return;
+            }
+            do {
+                skipWhitespace();
+                if (pos < length && line[pos] == '{') {
+                    pos++;
+                    double total = Double.NaN;
+                    if (!consume('}')) {
+                        do {
+                            CharSequence key = jsonKey();
+                            skipWhitespace();
+                            expect(':');
+                            skipWhitespace();
+                            if ("total".contentEquals(key)) {
+                                total = jsonNumber();
+                            } else {
+                                skipValue();
+                            }
+                            skipWhitespace();
+                        } while (consume(','));
+                        expect('}');
+                    }
+                    orders.add(new Order(total));
+                } else {
+                    orders.add(new Order(jsonNumber()));
+                }
+                skipWhitespace();
+            } while (consume(','));
+            expect(']');
+        }
+
+        private String jsonStringOrNull() throws IOException {
+            return consumeLiteral("null") ? null : jsonString();
+        }
+
+        private String jsonString() throws IOException {
+            return readJsonString().toString();
+        }
+
+        /**
+         * Reads a key without allocating: the returned characters are only
+         * valid until the next string is read.
+         */
+        private CharSequence jsonKey() throws IOException {
+            return readJsonString();
+        }
+
+        private StringBuilder readJsonString() throws IOException {
+            skipWhitespace();
+            expect('"');
+            text.setLength(0);
+            while (true) {
+                if (pos >= length) {
+                    throw error("Unterminated string");
+                }
+                char c = line[pos++];
+                if (c == '"') {
+                    return text;
+                }
+                if (c != '\\') {
+                    text.append(c);
+                    continue;
+                }
+                if (pos >= length) {
+                    throw error("Unterminated escape");
+                }
+                char escaped = line[pos++];
+                switch (escaped) {
+                    case 'b':
+                        text.append('\b');
+                        break;
+                    case 'f':
+                        text.append('\f');
+                        break;
+                    case 'n':
+                        text.append('\n');
+                        break;
+                    case 'r':
+                        text.append('\r');
+                        break;
+                    case 't':
+                        text.append('\t');
+                        break;
+                    case 'u':
+                        if (pos + 4 > length) {
+                            throw error("Bad unicode escape");
+                        }
+                        text.append((char) Integer.parseInt(new String(line, pos, 4), 16));
+                        pos += 4;
+                        break;
+                    default:
+                        text.append(escaped);
+                }
+            }
+        }
+
+        private double jsonNumber() throws IOException {
+            int from = pos;
+            while (pos < length && "+-0123456789.eE".indexOf(line[pos]) >= 0) {
+                pos++;
+            }
+            return number(from, pos);
+        }
+
+        private void skipValue() throws IOException {
+            skipWhitespace();
+            if (pos >= length) {
+                throw error("Missing value");
+            }
+            char c = line[pos];
+            if (c == '"') {
+                jsonString();
+            } else if (c == '{' || c == '[') {
+                int depth = 0;
+                boolean inString = false;
+                do {
+                    char d = line[pos++];
+                    if (inString) {
+                        if (d == '\\') {
+                            pos++;
+                        } else if (d == '"') {
+                            inString = false;
+                        }
+                    } else if (d == '"') {
+                        inString = true;
+                    } else if (d == '{' || d == '[') {
+                        depth++;
+                    } else if (d == '}' || d == ']') {
+                        depth--;
+                    }
+                } while (depth > 0 && pos < length);
+                if (depth > 0) {
+                    throw error("Unterminated value");
+                }
+            } else {
+                while (pos < length && line[pos] != ',' && line[pos] != '}' && line[pos] != ']') {
+                    pos++;
+                }
+            }
+        }
+
+        /**
+         * Parses {@code line[from, to)} as a double. Plain decimals of up to
+         * 15 significant digits are exact in a long and divided once by an
+         * exact power of ten, which rounds correctly; anything else falls
+         * back to {@link Double#parseDouble}.
+         */
+        private double number(int from, int to) throws IOException {
+            int i = from;
+            boolean negative = i < to && line[i] == '-';
+            if (negative || (i < to && line[i] == '+')) {
+                i++;
+            }
+            long mantissa = 0;
+            int digits = 0;
+            int fractionDigits = -1;
+            for (; i < to; i++) {
+                char c = line[i];
+                if (c >= '0' && c <= '9') {
+                    mantissa = mantissa * 10 + (c - '0');
+                    digits++;
+                    if (fractionDigits >= 0) {
+                        fractionDigits++;
+                    }
+                } else if (c == '.' && fractionDigits < 0) {
+                    fractionDigits = 0;
+                } else {
+                    break;
+                }
+            }
+            if (i == to && digits > 0 && digits <= 15 && fractionDigits < POWERS_OF_TEN.length) {
+                double value = fractionDigits <= 0 ? mantissa : mantissa / POWERS_OF_TEN[fractionDigits];
+                return negative ? -value : value;
+            }
+            try {
+                return Double.parseDouble(new String(line, from, to - from));
+            } catch (NumberFormatException e) {
+                throw error("Bad number '" + new String(line, from, to - from) + "'");
+            }
+        }
+
+        private void skipWhitespace() {
+            while (pos < length && Character.isWhitespace(line[pos])) {
+                pos++;
+            }
+        }
+
+        private boolean consume(char c) {
+            skipWhitespace();
+            if (pos < length && line[pos] == c) {
+                pos++;
+                return true;
+            }
+            return false;
+        }
+
+        private boolean consumeLiteral(String literal) {
+            skipWhitespace();
+            if (pos + literal.length() > length) {
+                return false;
+            }
+            for (int i = 0; i < literal.length(); i++) {
+                if (line[pos + i] != literal.charAt(i)) {
+                    return false;
+                }
+            }
+            pos += literal.length();
+            return true;
+        }
+
+        private void expect(char c) throws IOException {
+            if (pos >= length || line[pos] != c) {
+                throw error("Expected '" + c + "'");
+            }
+            pos++;
+        }
+
+        private IOException error(String message) {
+            return new IOException(message + " at column " + (pos + 1) + " of the line at byte " + lineStart);
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package com.dev2next.cognitiveload;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+
+import com.dev2next.cognitiveload.BetterStreamsAndLambdas.Order;
+import com.dev2next.cognitiveload.BetterStreamsAndLambdas.User;
+
+/**
+ * Users sorted by their largest order total.
+ *
+ * <p>
+ * "Users with an order above X" is a range query: every user at or below the
+ * threshold is skipped without being looked at, for any threshold. The index
+ * is kept current by adding orders through {@link #addOrder(User, Order)},
+ * which moves a user only when the order raises their maximum. Users with the
+ * same maximum are returned in the order they were indexed.
+ * </p>
+ *
+ * <p>
+ * Not thread-safe.
+ * </p>
+ */
+final class UserOrderIndex {
+
+    private final NavigableMap<Double, Set<User>> byMaxOrderTotal = new TreeMap<>();
+    private int size;
+
+    static UserOrderIndex of(List<User> users) {
+        UserOrderIndex index = new UserOrderIndex();
+        users.forEach(index::add);
+        return index;
+    }
+
+    /**
+     * Indexes a user that is not indexed yet.
+     */
+    void add(User user) {
+        byMaxOrderTotal.computeIfAbsent(key(user.getMaxOrderTotal()), max -> new LinkedHashSet<>()).add(user);
+        size++;
+    }
+
+    /**
+     * Adds {@code order} to {@code user}, who must be indexed, and moves the
+     * user if their maximum order total changed. A user that is not indexed
+     * is rejected before the order is added.
+     */
+    void addOrder(User user, Order order) {
+        double previous = user.getMaxOrderTotal();
+        Set<User> bucket = byMaxOrderTotal.get(key(previous));
+        if (bucket == null || !bucket.contains(user)) {
+            throw new IllegalArgumentException("User is not indexed");
+        }
+        if (!user.addOrder(order)) {
+            return;
+        }
+        bucket.remove(user);
+        if (bucket.isEmpty()) {
+            byMaxOrderTotal.remove(key(previous));
+        }
+        byMaxOrderTotal.computeIfAbsent(key(user.getMaxOrderTotal()), max -> new LinkedHashSet<>()).add(user);
+    }
+
+    /**
+     * Users with at least one order total strictly greater than
+     * {@code threshold}, in ascending order of their largest total.
+     */
+    Stream<User> usersWithOrderAbove(double threshold) {
+        return byMaxOrderTotal.tailMap(key(threshold), false).values().stream().flatMap(Set::stream);
+    }
+
+    int countWithOrderAbove(double threshold) {
+        int count = 0;
+        for (Set<User> bucket : byMaxOrderTotal.tailMap(key(threshold), false).values()) {
+            count += bucket.size();
+        }
+        return count;
+    }
+
+    /**
+     * The {@code limit} users with the largest order totals, largest first.
+     */
+    List<User> top(int limit) {
+        List<User> top = new ArrayList<>(Math.min(limit, size));
+        for (Map.Entry<Double, Set<User>> entry : byMaxOrderTotal.descendingMap().entrySet()) {
+            for (User user : entry.getValue()) {
+                if (top.size() == limit) {
+                    return top;
+                }
+                top.add(user);
+            }
+        }
+        return top;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Map key for an order total. Adding zero turns -0.0 into 0.0, which the
+     * map would otherwise order apart although they compare equal as numbers.
+     */
+    private static double key(double total) {
+        return total + 0.0;
+    }
+}
@@ -0,0 +1,88 @@
+package com.dev2next.cognitiveload;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.stream.Stream;
+
+/**
+ * Thread-safe set of user names for {@link GodClass}.
+ *
+ * <p>
+ * Membership checks and de-duplication go through a concurrent hash set, so
+ * they are O(1) however many users there are. A concurrent skip list keeps
+ * the same names sorted for range and prefix lookups and for paging through
+ * the users without ever copying or formatting the whole collection.
+ * </p>
+ */
+class UserRegistry {
+
+    private final Set<String> members = ConcurrentHashMap.newKeySet();
+    private final NavigableSet<String> sorted = new ConcurrentSkipListSet<>();
+
+    /**
+     * @return {@code false} if the user was already registered
+     */
+    boolean add(String name) {
+        if (!members.add(name)) {
+            return false;
+        }
+        sorted.add(name);
+        return true;
+    }
+
+    boolean contains(String name) {
+        return members.contains(name);
+    }
+
+    int size() {
+        return members.size();
+    }
+
+    /**
+     * Returns up to {@code limit} names in ascending order, starting right
+     * after {@code after}, or from the beginning if {@code after} is
+     * {@code null}. Passing the last name of a page fetches the next one.
+     */
+    List<String> page(String after, int limit) {
+        Iterable<String> from = after == null ? sorted : sorted.tailSet(after, false);
+        return take(from, null, limit);
+    }
+
+    /**
+     * Returns up to {@code limit} names starting with {@code prefix}, in
+     * ascending order.
+     */
+    List<String> withPrefix(String prefix, int limit) {
+        return take(sorted.tailSet(prefix, true), prefix, limit);
+    }
+
+    /**
+     * Returns a live, sorted view of the names from {@code from} inclusive to
+     * {@code to} exclusive.
+     */
+    NavigableSet<String> range(String from, String to) {
+        return sorted.subSet(from, true, to, false);
+    }
+
+    /**
+     * Streams every name in ascending order without copying the registry.
+     */
+    Stream<String> stream() {
+        return sorted.stream();
+    }
+
+    private static List<String> take(Iterable<String> names, String prefix, int limit) {
+        List<String> page = new ArrayList<>(Math.min(limit, 1024));
+        for (String name : names) {
+            if (page.size() == limit || (prefix != null && !name.startsWith(prefix))) {
+                break;
+            }
+            page.add(name);
+        }
+        return page;
+    }
+}